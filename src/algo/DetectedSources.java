@@ -0,0 +1,111 @@
+package algo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import dm.Source;
+import dm.Window;
+
+/**
+ * The {@link Source}s detected in a {@link WindowBatch} by {@link SourceDetector#getSources(WindowBatch)}, each
+ * tagged with the index in the batch of the {@link Window} it was detected in. The {@link Source}s are stored in order
+ * of their {@link Window} in the batch, and in the order returned by {@link SourceDetector#getSources(Window)} within
+ * each {@link Window}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class DetectedSources {
+
+    /**
+     * All the {@link Source}s detected, in order of their {@link Window} in the batch.
+     */
+    private final List<Source> sources;
+
+    /**
+     * The position in {@link #sources} of the first {@link Source} of each {@link Window}; the {@link Source}s of
+     * window w occupy positions windowOffsets[w] (inclusive) to windowOffsets[w+1] (exclusive).
+     */
+    private final int[] windowOffsets;
+
+    /**
+     * The index in the batch of the {@link Window} that each {@link Source} was detected in.
+     */
+    private final int[] windowIndices;
+
+    /**
+     * Main constructor for the {@link DetectedSources}.
+     *
+     * @param windowSources
+     *            The {@link Source}s detected in each {@link Window}, indexed by the position of the {@link Window} in
+     *            the batch
+     */
+    DetectedSources(List<List<Source>> windowSources) {
+
+        windowOffsets = new int[windowSources.size() + 1];
+        for (int w = 0; w < windowSources.size(); w++) {
+            windowOffsets[w + 1] = windowOffsets[w] + windowSources.get(w).size();
+        }
+
+        sources = new ArrayList<>(windowOffsets[windowSources.size()]);
+        windowIndices = new int[windowOffsets[windowSources.size()]];
+        for (int w = 0; w < windowSources.size(); w++) {
+            sources.addAll(windowSources.get(w));
+            for (int s = windowOffsets[w]; s < windowOffsets[w + 1]; s++) {
+                windowIndices[s] = w;
+            }
+        }
+    }
+
+    /**
+     * Get the total number of {@link Source}s detected.
+     *
+     * @return The total number of {@link Source}s detected.
+     */
+    public int size() {
+        return sources.size();
+    }
+
+    /**
+     * Get the i'th {@link Source} detected.
+     *
+     * @param i
+     *            The index of the {@link Source}
+     * @return The {@link Source}
+     */
+    public Source getSource(int i) {
+        return sources.get(i);
+    }
+
+    /**
+     * Get the index in the batch of the {@link Window} that the i'th {@link Source} was detected in.
+     *
+     * @param i
+     *            The index of the {@link Source}
+     * @return The index in the batch of the {@link Window}
+     */
+    public int getWindowIndex(int i) {
+        return windowIndices[i];
+    }
+
+    /**
+     * Get all the {@link Source}s detected, in order of their {@link Window} in the batch.
+     *
+     * @return An unmodifiable {@link List} of all the {@link Source}s detected.
+     */
+    public List<Source> getSources() {
+        return Collections.unmodifiableList(sources);
+    }
+
+    /**
+     * Get the {@link Source}s detected in the given {@link Window}.
+     *
+     * @param window
+     *            The index of the {@link Window} in the batch
+     * @return An unmodifiable {@link List} of the {@link Source}s detected in the {@link Window}.
+     */
+    public List<Source> getSources(int window) {
+        return Collections.unmodifiableList(sources.subList(windowOffsets[window], windowOffsets[window + 1]));
+    }
+}
@@ -0,0 +1,446 @@
+package algo;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import dm.Source;
+import dm.Window;
+import util.Direction;
+import util.LocalBkgUtils;
+
+/**
+ * Scratch buffers used by the {@link SourceDetector}s when processing a {@link Window}. A workspace is kept for each
+ * thread (see {@link #forCurrentThread()}) and its buffers are sized to the largest window geometry seen so far, so
+ * that once the largest window has been processed the source detection allocates nothing apart from the
+ * {@link Source}s it returns.
+ *
+ * The workspace can also record the number of bytes allocated on the heap by each call to
+ * {@link SourceDetector#getSources(Window)}, as measured by the {@link java.lang.management.ThreadMXBean}, in order
+ * to verify this; see {@link #setAllocationTracking(boolean)}.
+ *
+ * Instances are not thread safe, and should only be used by the thread that obtained them.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class DetectionWorkspace {
+
+    /**
+     * The {@link DetectionWorkspace} for each thread.
+     */
+    private static final ThreadLocal<DetectionWorkspace> workspaces = new ThreadLocal<DetectionWorkspace>() {
+        @Override
+        protected DetectionWorkspace initialValue() {
+            return new DetectionWorkspace();
+        }
+    };
+
+    /**
+     * If true, the heap allocation of each call to {@link SourceDetector#getSources(Window)} is recorded.
+     */
+    private static volatile boolean trackAllocation = false;
+
+    /**
+     * The number of samples that the buffers can currently accommodate.
+     */
+    private int capacity = 0;
+
+    /**
+     * The {@link WindowGeometry} of each distinct window geometry seen so far; see {@link #getGeometry(Window)}.
+     */
+    private WindowGeometry[] geometries = new WindowGeometry[4];
+
+    /**
+     * The number of {@link WindowGeometry}s in {@link #geometries}.
+     */
+    private int nGeometries = 0;
+
+    /**
+     * Buffer for selecting the lowest samples in the estimation of the local background.
+     */
+    private final float[] backgroundSamples = new float[LocalBkgUtils.MAX_LOWEST_SAMPLE_COUNT];
+
+    /**
+     * The background level [0] and error [1] for the current window.
+     */
+    private final double[] backgroundAndError = new double[2];
+
+    /**
+     * Buffer for the (background-subtracted) fluxes of the neighbours of the peak sample of a {@link Source}.
+     */
+    private final float[] neighbourFluxes = new float[Direction.EIGHT_NEIGHBOURS.length];
+
+    /**
+     * Buffer for the (background-subtracted) fluxes of the samples used to compute the shape statistics of a
+     * {@link Source}: the neighbours of the peak sample followed by the other samples of the {@link Source}.
+     */
+    private double[] shapeFluxes = new double[0];
+
+    /**
+     * Buffer for the AC positions [pixels] of the samples used to compute the shape statistics of a {@link Source}.
+     */
+    private double[] shapeAcPositions = new double[0];
+
+    /**
+     * Buffer for the AL positions [pixels] of the samples used to compute the shape statistics of a {@link Source}.
+     */
+    private double[] shapeAlPositions = new double[0];
+
+    /**
+     * Sort keys for the samples, used by the segmentation to order the samples by intensity.
+     */
+    private long[] sortKeys = new long[0];
+
+    /**
+     * The number of source labels assigned to each sample by the segmentation.
+     */
+    private byte[] labelCounts = new byte[0];
+
+    /**
+     * The first source label assigned to each sample by the segmentation.
+     */
+    private int[] firstLabels = new int[0];
+
+    /**
+     * The most recent source label assigned to each sample by the segmentation.
+     */
+    private int[] lastLabels = new int[0];
+
+    /**
+     * The parent of each sample in the union-find forest built by a connected-component segmentation.
+     */
+    private int[] parents = new int[0];
+
+    /**
+     * The samples in the region currently being grown by the segmentation.
+     */
+    private int[] regionSamples = new int[0];
+
+    /**
+     * The frontier of the region currently being grown by the segmentation.
+     */
+    private long[] frontier = new long[0];
+
+    /**
+     * The indices of the samples assigned to each source by the segmentation, grouped by source.
+     */
+    private int[] sourceSamples = new int[0];
+
+    /**
+     * The position in {@link #sourceSamples} of the first sample of each source; the samples of source l occupy
+     * positions sourceOffsets[l] (inclusive) to sourceOffsets[l+1] (exclusive).
+     */
+    private int[] sourceOffsets = new int[1];
+
+    /**
+     * Buffer for the neighbours of the sample being searched by the segmentation.
+     */
+    private final int[] neighbours = new int[Direction.EIGHT_NEIGHBOURS.length];
+
+    /**
+     * The number of bytes allocated by a pair of consecutive calls to {@link #getThreadAllocatedBytes()}, which is
+     * subtracted from the recorded allocations.
+     */
+    private final long measurementBytes;
+
+    /**
+     * The number of {@link Window}s for which the allocation has been recorded.
+     */
+    private long nWindows = 0;
+
+    /**
+     * The total number of bytes allocated while processing the recorded {@link Window}s.
+     */
+    private long allocatedBytes = 0;
+
+    /**
+     * Private constructor: instances are obtained from {@link #forCurrentThread()}.
+     */
+    private DetectionWorkspace() {
+        getThreadAllocatedBytes();
+        final long bytes0 = getThreadAllocatedBytes();
+        final long bytes1 = getThreadAllocatedBytes();
+        measurementBytes = bytes1 - bytes0;
+    }
+
+    /**
+     * Get the {@link DetectionWorkspace} for the current thread.
+     *
+     * @return The {@link DetectionWorkspace} for the current thread.
+     */
+    public static DetectionWorkspace forCurrentThread() {
+        return workspaces.get();
+    }
+
+    /**
+     * Get the {@link WindowGeometry} of the {@link Window}, and ensure that the buffers can accommodate it. The
+     * {@link WindowGeometry} of each distinct geometry is created once and kept, so that there's no allocation in the
+     * steady state; there are only a handful of window geometries, so they're found by a linear search.
+     *
+     * @param window
+     *            The {@link Window}
+     * @return The {@link WindowGeometry} of the {@link Window}
+     */
+    public WindowGeometry getGeometry(Window window) {
+        for (int g = 0; g < nGeometries; g++) {
+            if (geometries[g].matches(window)) {
+                return geometries[g];
+            }
+        }
+        final WindowGeometry geometry = new WindowGeometry(window);
+        ensureCapacity(geometry.nSamples);
+        if (nGeometries == geometries.length) {
+            geometries = Arrays.copyOf(geometries, 2 * nGeometries);
+        }
+        geometries[nGeometries++] = geometry;
+        return geometry;
+    }
+
+    /**
+     * Ensures that the buffers can accommodate a window of the given number of samples. The buffers are only ever
+     * enlarged, so their contents are undefined after this call.
+     *
+     * @param n
+     *            The number of samples in the window
+     */
+    public void ensureCapacity(int n) {
+        if (capacity >= n) {
+            return;
+        }
+        shapeFluxes = new double[n + Direction.EIGHT_NEIGHBOURS.length];
+        shapeAcPositions = new double[n + Direction.EIGHT_NEIGHBOURS.length];
+        shapeAlPositions = new double[n + Direction.EIGHT_NEIGHBOURS.length];
+        sortKeys = new long[n];
+        labelCounts = new byte[n];
+        firstLabels = new int[n];
+        lastLabels = new int[n];
+        parents = new int[n];
+        regionSamples = new int[n];
+        frontier = new long[n];
+        sourceSamples = new int[n];
+        sourceOffsets = new int[n + 1];
+        capacity = n;
+    }
+
+    /**
+     * Get the buffer for selecting the lowest samples in the estimation of the local background.
+     *
+     * @return The buffer for selecting the lowest samples in the estimation of the local background.
+     */
+    public float[] getBackgroundSamples() {
+        return backgroundSamples;
+    }
+
+    /**
+     * Get the array holding the background level [0] and error [1] for the current window.
+     *
+     * @return The array holding the background level [0] and error [1] for the current window.
+     */
+    public double[] getBackgroundAndError() {
+        return backgroundAndError;
+    }
+
+    /**
+     * Get the buffer for the fluxes of the neighbours of the peak sample of a {@link Source}.
+     *
+     * @return The buffer for the fluxes of the neighbours of the peak sample of a {@link Source}.
+     */
+    public float[] getNeighbourFluxes() {
+        return neighbourFluxes;
+    }
+
+    /**
+     * Get the buffer for the fluxes of the samples used to compute the shape statistics of a {@link Source}.
+     *
+     * @return The buffer for the fluxes of the samples used to compute the shape statistics of a {@link Source}.
+     */
+    public double[] getShapeFluxes() {
+        return shapeFluxes;
+    }
+
+    /**
+     * Get the buffer for the AC positions of the samples used to compute the shape statistics of a {@link Source}.
+     *
+     * @return The buffer for the AC positions of the samples used to compute the shape statistics of a {@link Source}.
+     */
+    public double[] getShapeAcPositions() {
+        return shapeAcPositions;
+    }
+
+    /**
+     * Get the buffer for the AL positions of the samples used to compute the shape statistics of a {@link Source}.
+     *
+     * @return The buffer for the AL positions of the samples used to compute the shape statistics of a {@link Source}.
+     */
+    public double[] getShapeAlPositions() {
+        return shapeAlPositions;
+    }
+
+    /**
+     * Get the buffer for the sort keys of the samples.
+     *
+     * @return The buffer for the sort keys of the samples.
+     */
+    public long[] getSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * Get the buffer for the number of source labels assigned to each sample.
+     *
+     * @return The buffer for the number of source labels assigned to each sample.
+     */
+    public byte[] getLabelCounts() {
+        return labelCounts;
+    }
+
+    /**
+     * Get the buffer for the first source label assigned to each sample.
+     *
+     * @return The buffer for the first source label assigned to each sample.
+     */
+    public int[] getFirstLabels() {
+        return firstLabels;
+    }
+
+    /**
+     * Get the buffer for the most recent source label assigned to each sample.
+     *
+     * @return The buffer for the most recent source label assigned to each sample.
+     */
+    public int[] getLastLabels() {
+        return lastLabels;
+    }
+
+    /**
+     * Get the buffer for the parent of each sample in a union-find forest.
+     *
+     * @return The buffer for the parent of each sample in a union-find forest.
+     */
+    public int[] getParents() {
+        return parents;
+    }
+
+    /**
+     * Get the buffer for the samples in the region currently being grown.
+     *
+     * @return The buffer for the samples in the region currently being grown.
+     */
+    public int[] getRegionSamples() {
+        return regionSamples;
+    }
+
+    /**
+     * Get the buffer for the frontier of the region currently being grown.
+     *
+     * @return The buffer for the frontier of the region currently being grown.
+     */
+    public long[] getFrontier() {
+        return frontier;
+    }
+
+    /**
+     * Get the buffer for the indices of the samples assigned to each source, grouped by source.
+     *
+     * @return The buffer for the indices of the samples assigned to each source, grouped by source.
+     */
+    public int[] getSourceSamples() {
+        return sourceSamples;
+    }
+
+    /**
+     * Get the buffer for the position of the first sample of each source in {@link #getSourceSamples()}; the samples
+     * of source l occupy positions [l] (inclusive) to [l+1] (exclusive).
+     *
+     * @return The buffer for the position of the first sample of each source in {@link #getSourceSamples()}.
+     */
+    public int[] getSourceOffsets() {
+        return sourceOffsets;
+    }
+
+    /**
+     * Get the buffer for the neighbours of the sample being searched.
+     *
+     * @return The buffer for the neighbours of the sample being searched.
+     */
+    public int[] getNeighbours() {
+        return neighbours;
+    }
+
+    /**
+     * Enables or disables the recording of the heap allocation of each call to
+     * {@link SourceDetector#getSources(Window)}, for all threads.
+     *
+     * @param track
+     *            If true, the heap allocation is recorded.
+     */
+    public static void setAllocationTracking(boolean track) {
+        trackAllocation = track;
+    }
+
+    /**
+     * Determines whether the heap allocation of each call to {@link SourceDetector#getSources(Window)} is being
+     * recorded.
+     *
+     * @return True if the heap allocation is being recorded.
+     */
+    public static boolean isAllocationTracking() {
+        return trackAllocation;
+    }
+
+    /**
+     * Records the heap allocation for a {@link Window}.
+     *
+     * @param bytes0
+     *            The value of {@link #getThreadAllocatedBytes()} before the {@link Window} was processed.
+     * @param bytes1
+     *            The value of {@link #getThreadAllocatedBytes()} after the {@link Window} was processed.
+     */
+    void recordAllocation(long bytes0, long bytes1) {
+        if (bytes0 < 0) {
+            return;
+        }
+        nWindows++;
+        allocatedBytes += Math.max(0, bytes1 - bytes0 - measurementBytes);
+    }
+
+    /**
+     * Get the number of {@link Window}s for which the heap allocation has been recorded.
+     *
+     * @return The number of {@link Window}s for which the heap allocation has been recorded.
+     */
+    public long getWindowCount() {
+        return nWindows;
+    }
+
+    /**
+     * Get the mean number of bytes allocated on the heap per {@link Window} processed, over the {@link Window}s for
+     * which the allocation has been recorded. This includes the {@link Source}s returned.
+     *
+     * @return The mean number of bytes allocated per {@link Window}, or NaN if none have been recorded.
+     */
+    public double getAllocatedBytesPerWindow() {
+        return nWindows == 0 ? Double.NaN : (double) allocatedBytes / nWindows;
+    }
+
+    /**
+     * Resets the recorded heap allocation.
+     */
+    public void resetAllocation() {
+        nWindows = 0;
+        allocatedBytes = 0;
+    }
+
+    /**
+     * Get the number of bytes allocated on the heap by the current thread so far, if the JVM supports it.
+     *
+     * @return The number of bytes allocated on the heap by the current thread, or -1 if not supported.
+     */
+    public static long getThreadAllocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -1,6 +1,9 @@
 package algo;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 import dm.Source;
 import dm.Window;
@@ -32,6 +35,17 @@ public abstract class SourceDetector {
      */
     public static final double FAINT_SOURCE_FLUX_THRESHOLD_E = 100.0;
 
+    /**
+     * The number of {@link Window}s processed by {@link #getSources(Window)}.
+     */
+    private final LongAdder nWindows = new LongAdder();
+
+    /**
+     * The number of {@link Window}s processed by {@link #getSources(Window)} that had no samples above the source
+     * detection threshold, and so took the fast path.
+     */
+    private final LongAdder nEmptyWindows = new LongAdder();
+
     /**
      * Detects and classifies sources in the window, and returns a List of all the sources found. Works for both 1D and
      * 2D windows, though the classifications available are restricted for 1D windows.
@@ -41,28 +55,33 @@ public abstract class SourceDetector {
      *
      * @param samples
      *            Array of all samples (AC-packed) [e-]
-     * @param alLength
-     *            Length of samples window in AL direction
-     * @param acLength
-     *            Length of samples window in AC direction
-     * @param alPixPerSample
-     *            Number of pixels in a sample, in the AL direction
-     * @param acPixPerSample
-     *            Number of pixels in a sample, in the AC direction
+     * @param geometry
+     *            The {@link WindowGeometry} of the window, giving the window and sample sizes and the geometry-dependent
+     *            detection parameters
      * @param bkg
      *            Background level and error (STD)
+     * @param workspace
+     *            The {@link DetectionWorkspace} of the calling thread, from which scratch buffers may be borrowed. This
+     *            has already been sized for the window.
      * @return List containing the (classified) Sources detected in the window
      */
-    protected abstract List<Source> getSources(float[] samples, int alLength, int acLength, int alPixPerSample,
-            int acPixPerSample, double[] bkg);
+    protected abstract List<Source> getSources(float[] samples, WindowGeometry geometry, double[] bkg,
+            DetectionWorkspace workspace);
 
     /**
-     * Alternative interface to {@link #getSources(double[], int, int, int, int, double[], boolean)} that computes an
+     * Alternative interface to {@link #getSources(float[], WindowGeometry, double[], DetectionWorkspace)} that computes an
      * empirical estimate of the local background and error for use in the multiple source detection.
      *
      * The samples do not need to be debiased and background subtracted: sources are detected using a locally estimated
      * background level that combines both the bias level and the stray light background.
      *
+     * Once the background has been estimated the samples are scanned for any above the source detection threshold;
+     * if there are none then no sources can be detected, and an empty (immutable) list is returned without running
+     * the full detection. See {@link #getFastPathFraction()}.
+     *
+     * Scratch buffers are borrowed from the {@link DetectionWorkspace} of the calling thread, which also records the
+     * heap allocation of each call if {@link DetectionWorkspace#setAllocationTracking(boolean)} is enabled.
+     *
      * @param samples
      *            Array of all samples (AC-packed) [e-].
      * @param alLength
@@ -77,21 +96,151 @@ public abstract class SourceDetector {
      */
     public List<Source> getSources(Window window) {
     	
+    	final DetectionWorkspace workspace = DetectionWorkspace.forCurrentThread();
+    	
+    	return getSources(window, workspace.getGeometry(window), workspace);
+    }
+
+    /**
+     * Detects the sources in each of a batch of {@link Window}s, as for {@link #getSources(Window)}. The
+     * {@link Window}s are processed one geometry at a time (see {@link WindowBatch}): the {@link DetectionWorkspace}
+     * is sized once for each group, and the {@link WindowGeometry} of the group, with the neighbourhood and the number
+     * of samples used for the background estimate, is passed to the detection of each {@link Window} in it.
+     *
+     * @param batch
+     *            The {@link WindowBatch} to process
+     * @return The {@link Source}s detected, tagged with the index in the batch of their {@link Window}
+     */
+    public DetectedSources getSources(WindowBatch batch) {
+    	
+    	final DetectionWorkspace workspace = DetectionWorkspace.forCurrentThread();
+    	
+    	final List<List<Source>> windowSources = new ArrayList<>(Collections.<List<Source>>nCopies(batch.size(), null));
+    	
+    	for(int g=0; g<batch.getGroupCount(); g++) {
+    		
+    		final WindowGeometry geometry = batch.getGeometry(g);
+    		workspace.ensureCapacity(geometry.nSamples);
+    		
+    		for(int k=0; k<batch.getGroupSize(g); k++) {
+    			final int w = batch.getWindowIndex(g, k);
+    			windowSources.set(w, getSources(batch.getWindow(w), geometry, workspace));
+    		}
+    	}
+    	
+    	return new DetectedSources(windowSources);
+    }
+
+    /**
+     * Convenience method to detect the sources in a list of {@link Window}s; see {@link #getSources(WindowBatch)}.
+     *
+     * @param windows
+     *            The {@link Window}s to process
+     * @return The {@link Source}s detected, tagged with the index in the list of their {@link Window}
+     */
+    public DetectedSources getSources(List<Window> windows) {
+    	return getSources(new WindowBatch(windows));
+    }
+
+    /**
+     * Detects the sources in the {@link Window}, using a {@link DetectionWorkspace} that has already been sized for
+     * it; see {@link #getSources(Window)}.
+     *
+     * @param window
+     *            The {@link Window} to process
+     * @param geometry
+     *            The {@link WindowGeometry} of the {@link Window}
+     * @param workspace
+     *            The {@link DetectionWorkspace} of the calling thread
+     * @return List containing the (classified) Sources detected in the window
+     */
+    private List<Source> getSources(Window window, WindowGeometry geometry, DetectionWorkspace workspace) {
+    	
     	float[] samples = window.samples;
-    	int alLength = window.alSamples;
-    	int acLength = window.acSamples;
-    	int alPixPerSample = window.alSampleSize;
-    	int acPixPerSample = window.acSampleSize;
     	
-        final double[] bkgAndError = LocalBkgUtils.estimateBackgroundAndError(samples);
+    	final boolean trackAllocation = DetectionWorkspace.isAllocationTracking();
+    	final long bytes0 = trackAllocation ? DetectionWorkspace.getThreadAllocatedBytes() : 0L;
+    	
+        final double[] bkgAndError = LocalBkgUtils.estimateBackgroundAndError(samples, geometry.lowestSampleCount,
+        		workspace.getBackgroundSamples(), workspace.getBackgroundAndError());
         
-        List<Source> sources = getSources(samples, alLength, acLength, alPixPerSample, acPixPerSample, bkgAndError);
+        nWindows.increment();
         
-        // Copy the observation time for each Source from the Window
-        for(Source source : sources) {
-        	source.setObmtRev(window.obmtRev);
+        List<Source> sources;
+        if(isAnyAboveThreshold(samples, bkgAndError[0] + SOURCE_DETECTION_THRESHOLD_SIGMAS * bkgAndError[1])) {
+        	sources = getSources(samples, geometry, bkgAndError, workspace);
+        	
+        	// Copy the observation time for each Source from the Window
+        	for(Source source : sources) {
+        		source.setObmtRev(window.obmtRev);
+        	}
+        }
+        else {
+        	nEmptyWindows.increment();
+        	sources = Collections.emptyList();
+        }
+        
+        if(trackAllocation) {
+        	workspace.recordAllocation(bytes0, DetectionWorkspace.getThreadAllocatedBytes());
         }
         
         return sources;
     }
-}
\ No newline at end of file
+
+    /**
+     * Determines whether any of the samples lie above the given threshold, i.e. whether there are any candidate source
+     * samples in the window.
+     *
+     * The comparison is made in single precision against the largest float not greater than the threshold, which is
+     * equivalent to comparing each sample to the threshold in double precision. The samples are compared in blocks of
+     * eight combined without branches, so that the JIT can unroll and vectorise the loop.
+     *
+     * @param samples
+     *            Array of all samples
+     * @param threshold
+     *            The threshold level
+     * @return True if any sample is strictly greater than the threshold.
+     */
+    protected static boolean isAnyAboveThreshold(float[] samples, double threshold) {
+    	
+    	float t = (float) threshold;
+    	if(t > threshold) {
+    		t = Math.nextDown(t);
+    	}
+    	
+    	final int n = samples.length;
+    	int i = 0;
+    	for(; i + 8 <= n; i += 8) {
+    		if(samples[i] > t | samples[i + 1] > t | samples[i + 2] > t | samples[i + 3] > t
+    				| samples[i + 4] > t | samples[i + 5] > t | samples[i + 6] > t | samples[i + 7] > t) {
+    			return true;
+    		}
+    	}
+    	for(; i < n; i++) {
+    		if(samples[i] > t) {
+    			return true;
+    		}
+    	}
+    	return false;
+    }
+
+    /**
+     * Get the number of {@link Window}s processed by {@link #getSources(Window)}.
+     *
+     * @return The number of {@link Window}s processed by {@link #getSources(Window)}.
+     */
+    public long getWindowCount() {
+        return nWindows.sum();
+    }
+
+    /**
+     * Get the fraction of the {@link Window}s processed by {@link #getSources(Window)} that had no samples above the
+     * source detection threshold, and so returned immediately without running the full detection.
+     *
+     * @return The fraction of {@link Window}s that took the fast path, or NaN if none have been processed.
+     */
+    public double getFastPathFraction() {
+        final long n = nWindows.sum();
+        return n == 0 ? Double.NaN : (double) nEmptyWindows.sum() / n;
+    }
+}
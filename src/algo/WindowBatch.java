@@ -0,0 +1,156 @@
+package algo;
+
+import java.util.Arrays;
+import java.util.List;
+
+import dm.Window;
+
+/**
+ * A batch of {@link Window}s to be processed together by {@link SourceDetector#getSources(WindowBatch)}. The
+ * {@link Window}s are grouped by geometry, i.e. by the number of samples and the sample size in each direction, so
+ * that the detection can be run over all the {@link Window}s of each geometry in turn with the geometry-dependent
+ * parameters (see {@link WindowGeometry}) resolved and the scratch buffers sized once per group.
+ *
+ * Groups are ordered by the first appearance of their geometry in the batch, and the {@link Window}s within each group
+ * keep their order in the batch.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class WindowBatch {
+
+    /**
+     * The {@link Window}s in the batch.
+     */
+    private final List<Window> windows;
+
+    /**
+     * The {@link WindowGeometry} of each group.
+     */
+    private final WindowGeometry[] geometries;
+
+    /**
+     * The indices of the {@link Window}s in the batch, grouped by geometry.
+     */
+    private final int[] order;
+
+    /**
+     * The position in {@link #order} of the first {@link Window} of each group; the {@link Window}s of group g occupy
+     * positions groupOffsets[g] (inclusive) to groupOffsets[g+1] (exclusive).
+     */
+    private final int[] groupOffsets;
+
+    /**
+     * Main constructor for the {@link WindowBatch}.
+     *
+     * @param windows
+     *            The {@link Window}s in the batch. The list is not copied, so must not be modified while the batch is
+     *            in use.
+     */
+    public WindowBatch(List<Window> windows) {
+
+        this.windows = windows;
+
+        // Assign each window to the group for its geometry. There are only a handful of window geometries, so the
+        // group is found by a linear search, starting from the group of the previous window.
+        WindowGeometry[] groupGeometries = new WindowGeometry[4];
+        int[] groupSizes = new int[4];
+        int nGroups = 0;
+        final int[] group = new int[windows.size()];
+        int g = 0;
+        for (int w = 0; w < windows.size(); w++) {
+            final Window window = windows.get(w);
+            if (nGroups == 0 || !groupGeometries[g].matches(window)) {
+                g = 0;
+                while (g < nGroups && !groupGeometries[g].matches(window)) {
+                    g++;
+                }
+                if (g == nGroups) {
+                    if (nGroups == groupGeometries.length) {
+                        groupGeometries = Arrays.copyOf(groupGeometries, 2 * nGroups);
+                        groupSizes = Arrays.copyOf(groupSizes, 2 * nGroups);
+                    }
+                    groupGeometries[nGroups++] = new WindowGeometry(window);
+                }
+            }
+            group[w] = g;
+            groupSizes[g]++;
+        }
+        geometries = Arrays.copyOf(groupGeometries, nGroups);
+
+        // Order the windows by group
+        groupOffsets = new int[nGroups + 1];
+        for (g = 0; g < nGroups; g++) {
+            groupOffsets[g + 1] = groupOffsets[g] + groupSizes[g];
+        }
+        final int[] next = Arrays.copyOf(groupOffsets, nGroups);
+        order = new int[windows.size()];
+        for (int w = 0; w < windows.size(); w++) {
+            order[next[group[w]]++] = w;
+        }
+    }
+
+    /**
+     * Get the number of {@link Window}s in the batch.
+     *
+     * @return The number of {@link Window}s in the batch.
+     */
+    public int size() {
+        return windows.size();
+    }
+
+    /**
+     * Get the {@link Window} at the given index in the batch.
+     *
+     * @param index
+     *            The index of the {@link Window} in the batch
+     * @return The {@link Window}
+     */
+    public Window getWindow(int index) {
+        return windows.get(index);
+    }
+
+    /**
+     * Get the number of distinct geometries in the batch.
+     *
+     * @return The number of distinct geometries in the batch.
+     */
+    public int getGroupCount() {
+        return groupOffsets.length - 1;
+    }
+
+    /**
+     * Get the number of {@link Window}s in the given group.
+     *
+     * @param group
+     *            The index of the group
+     * @return The number of {@link Window}s in the group
+     */
+    public int getGroupSize(int group) {
+        return groupOffsets[group + 1] - groupOffsets[group];
+    }
+
+    /**
+     * Get the index in the batch of the k'th {@link Window} in the given group.
+     *
+     * @param group
+     *            The index of the group
+     * @param k
+     *            The position of the {@link Window} in the group
+     * @return The index of the {@link Window} in the batch
+     */
+    public int getWindowIndex(int group, int k) {
+        return order[groupOffsets[group] + k];
+    }
+
+    /**
+     * Get the {@link WindowGeometry} of the {@link Window}s in the given group.
+     *
+     * @param group
+     *            The index of the group
+     * @return The {@link WindowGeometry} of the group
+     */
+    public WindowGeometry getGeometry(int group) {
+        return geometries[group];
+    }
+}
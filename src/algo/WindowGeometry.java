@@ -0,0 +1,81 @@
+package algo;
+
+import dm.Window;
+import util.Direction;
+import util.LocalBkgUtils;
+
+/**
+ * The geometry of a {@link Window}, i.e. the number of samples and the sample size in each direction, together with
+ * the source detection parameters that depend only on the geometry. These are resolved once for each geometry rather
+ * than for every {@link Window}: see {@link WindowBatch} and {@link DetectionWorkspace#getGeometry(Window)}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public final class WindowGeometry {
+
+    /**
+     * Window size (number of samples) in the AL direction
+     */
+    public final int alSamples;
+
+    /**
+     * Window size (number of samples) in the AC direction
+     */
+    public final int acSamples;
+
+    /**
+     * Sample size (number of pixels per sample) in the AL direction
+     */
+    public final int alSampleSize;
+
+    /**
+     * Sample size (number of pixels per sample) in the AC direction
+     */
+    public final int acSampleSize;
+
+    /**
+     * The total number of samples in the window.
+     */
+    public final int nSamples;
+
+    /**
+     * The number of lowest value samples used to estimate the local background; see
+     * {@link LocalBkgUtils#getLowestSampleCount(int)}.
+     */
+    public final int lowestSampleCount;
+
+    /**
+     * The pixel neighbourhood used to connect samples in the source detection; see
+     * {@link Direction#getNeighbourhood(int, int)}.
+     */
+    public final Direction[] neighbourhood;
+
+    /**
+     * Main constructor for the {@link WindowGeometry}.
+     *
+     * @param window
+     *            A {@link Window} of this geometry
+     */
+    public WindowGeometry(Window window) {
+        alSamples = window.alSamples;
+        acSamples = window.acSamples;
+        alSampleSize = window.alSampleSize;
+        acSampleSize = window.acSampleSize;
+        nSamples = alSamples * acSamples;
+        lowestSampleCount = LocalBkgUtils.getLowestSampleCount(nSamples);
+        neighbourhood = Direction.getNeighbourhood(alSamples, acSamples);
+    }
+
+    /**
+     * Determines whether the {@link Window} has this geometry.
+     *
+     * @param window
+     *            The {@link Window}
+     * @return True if the {@link Window} has the same numbers of samples and sample sizes as this geometry.
+     */
+    public boolean matches(Window window) {
+        return window.alSamples == alSamples && window.acSamples == acSamples && window.alSampleSize == alSampleSize
+                && window.acSampleSize == acSampleSize;
+    }
+}
@@ -1,13 +1,20 @@
 package algoimpl;
 
+import java.util.List;
+
 import algo.SourceClassifier;
+import dm.FlatNeuralNetwork;
 import dm.NeuralNetwork;
+import dm.SigmoidFunction;
 import dm.Source;
 import dm.Source.Type;
 
 /**
  * {@link SourceClassifier} implementation based on a {@link NeuralNetwork}.
  *
+ * The trained network is held as a {@link FlatNeuralNetwork}, with the activation buffers kept for each thread, so a
+ * single instance can be shared by all threads and classifying a {@link Source} allocates nothing.
+ *
  * TODO: hardcode the parameters for the neural network.
  *
  * @author nrowell
@@ -16,9 +23,9 @@ import dm.Source.Type;
 public class SourceClassifierNN implements SourceClassifier {
 
 	/**
-	 * The {@link NeuralNetwork} used to perform the classification.
+	 * The {@link FlatNeuralNetwork} used to perform the classification.
 	 */
-	NeuralNetwork neuralNetwork;
+	final FlatNeuralNetwork neuralNetwork;
 	
 	/**
 	 * The parameters of the {@link NeuralNetwork}.
@@ -26,36 +33,105 @@ public class SourceClassifierNN implements SourceClassifier {
 	double[] params = new double[]{1.1342973367371332, -2.686399965949776, -1.183947600746605, -1.2909343864147822, 1.220267272296525, 1.2722888159185817, -0.5785770637784854, 0.9399417262035493, -0.29411436417652, -0.2686562238985049, 0.8225590961571908, 0.8163491807820592, -2.417196242984236, 1.1391005264312741, -0.8781652180198124, -1.0294356583396442, 4.161501566817192, -1.5665312874662265, -1.410515258327577, 4.2321684981157, 0.03012668407874716, 0.5343032081772355, 0.9452803696986759, 1.0513098301544503, -0.32731564850346034, 0.046251759073640236, -4.8955557598415975, 1.2579438659696651, 0.0974370996575036, 1.4582193810401405, 1.0825952532575551, 1.480833734939218, 0.9108362473383418, 0.15330348846047617, -4.470348331090813, 1.0313164017306462, -6.362317558798425, 0.11034741479027868, 2.568858682692154, 2.285788610562752, -0.3376578088344199, 2.707312816608264, 0.010482934203044419, -5.58497375933043, 2.1876543221562317, -0.855300570993043, 2.963581734985444, -0.5353876346111963, 2.3753511749058265, -5.198915679333386, -1.1555220768194827, -0.632136621634756, -0.9102443940795066, -1.9328088494609266, -1.461761040745588, -1.443327142703491, -0.6371866584321354, -1.9994449672909955, -1.8927941075681458, -0.8667008159336119, -1.0814995173326556, -2.0848783734590293, -0.3882575363829958, -1.7164112366648014, -0.5326624654124, -1.8537129002252917};
 	
 	/**
-	 * Main constructor for the {@link SourceClassifierNN}.
+	 * Cached copy of {@link Type#values()}, used to look up the {@link Type} from the index of the network output.
+	 */
+	private static final Type[] TYPES = Type.values();
+	
+	/**
+	 * The network input buffer for each thread.
+	 */
+	private final ThreadLocal<double[]> inputs = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[neuralNetwork.getNumInputs()];
+		}
+	};
+	
+	/**
+	 * The network activation buffers for each thread.
+	 */
+	private final ThreadLocal<double[][]> activations = new ThreadLocal<double[][]>() {
+		@Override
+		protected double[][] initialValue() {
+			return neuralNetwork.createActivations();
+		}
+	};
+	
+	/**
+	 * The network activation buffers for batches of inputs, for each thread.
+	 */
+	private final ThreadLocal<double[][]> batchActivations = new ThreadLocal<double[][]>() {
+		@Override
+		protected double[][] initialValue() {
+			return neuralNetwork.createBatchActivations();
+		}
+	};
+	
+	/**
+	 * Main constructor for the {@link SourceClassifierNN}, using the exact sigmoid activation function.
 	 */
 	public SourceClassifierNN() {
-		neuralNetwork = new NeuralNetwork(new int[]{4,4,6}, 3, params);
+		this(SigmoidFunction.EXACT);
+	}
+	
+	/**
+	 * Constructor for the {@link SourceClassifierNN} using the given sigmoid activation function.
+	 * 
+	 * @param sigmoid
+	 * 	The function used to compute the activation of each neuron; {@link SigmoidFunction#TABLE} is faster but
+	 * approximate, so may (rarely) change the classification of {@link Source}s close to the boundary between classes.
+	 */
+	public SourceClassifierNN(SigmoidFunction sigmoid) {
+		neuralNetwork = new FlatNeuralNetwork(new int[]{4,4,6}, 3, params, sigmoid);
 	}
 	
 	@Override
 	public Type classifySource(Source source) {
 		
 		// Build the input array for the neural network
-		double[] input = new double[3];
+		double[] input = inputs.get();
 		input[0] = source.getFluxRatio();
 		input[1] = source.getEigenvalues()[0];
 		input[2] = source.getEigenvalues()[1];
 		
-		// Compute the output of the network
-		double[] output = neuralNetwork.getNetworkOutput(input);
-		
-		// Get the source classification from the largest output value
-		int maxIdx = 0;
-		double max = output[0];
-		for(int i=0; i<output.length; i++) {
-			if(output[i] > max) {
-				max = output[i];
-				maxIdx = i;
-			}
-		}
+		// Compute the output of the network and get the source classification from the largest output value
+		int maxIdx = neuralNetwork.getMaxOutputIndex(input, activations.get());
 		
 		// The variable maxIdx contains the index of the largest value in the output array.
 		// This tells us the classification for this source.
-		return Type.values()[maxIdx];
+		return TYPES[maxIdx];
+	}
+	
+	/**
+	 * Classify all the given {@link Source}s in one batch; this gives the same results as
+	 * {@link #classifySource(Source)} for each {@link Source} in turn, but is considerably faster for large numbers
+	 * of {@link Source}s.
+	 * 
+	 * @param sources
+	 * 	The {@link Source}s to classify.
+	 * @return
+	 * 	The {@link Source.Type} of each {@link Source}, in the same order.
+	 */
+	public Type[] classifySources(List<Source> sources) {
+		
+		// Build the N x 3 input matrix for the neural network
+		int n = sources.size();
+		double[] input = new double[n * 3];
+		int i = 0;
+		for(Source source : sources) {
+			input[i++] = source.getFluxRatio();
+			input[i++] = source.getEigenvalues()[0];
+			input[i++] = source.getEigenvalues()[1];
+		}
+		
+		// Compute the index of the largest output of the network for each source
+		int[] maxIdx = new int[n];
+		neuralNetwork.getMaxOutputIndices(input, n, maxIdx, batchActivations.get());
+		
+		Type[] types = new Type[n];
+		for(int s=0; s<n; s++) {
+			types[s] = TYPES[maxIdx[s]];
+		}
+		return types;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,196 @@
+package algoimpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import algo.DetectionWorkspace;
+import algo.SourceDetector;
+import algo.WindowGeometry;
+import dm.Sample;
+import dm.Source;
+import util.Direction;
+
+/**
+ * Implementation of the {@link SourceDetector} class that is based on connected-component labelling of the samples
+ * above the detection threshold, using a union-find (disjoint set) forest stored in an {@code int[]} parent array.
+ *
+ * The samples are scanned once in raster order; each sample above the threshold is joined to any of its neighbours
+ * above the threshold that have already been scanned. A second pass over the samples then assigns a label to each
+ * connected component, in order of its first sample. Unlike {@link SourceDetectorWatershedSegmentation}, blended
+ * sources that are connected above the threshold are not split along the watershed lines between them, but nor are
+ * extended sources fragmented by noise. Each sample is visited a fixed number of times, with no sorting, so the
+ * detection costs O(n) for a window of n samples.
+ *
+ * The {@link Source}s are ordered by their first sample in the window, and their {@link Sample}s are in the order they
+ * appear in the window. The flux and shape statistics are computed as for {@link SourceDetectorWatershedSegmentation}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class SourceDetectorUnionFind extends SourceDetector {
+
+    /**
+     * This implementation of {@link SourceDetector#getSources(float[], WindowGeometry, double[], DetectionWorkspace)}
+     * is based on connected-component labelling with a union-find.
+     */
+    @Override
+    protected List<Source> getSources(float[] samples, WindowGeometry geometry, double[] bkg,
+            DetectionWorkspace workspace) {
+
+        final int alLength = geometry.alSamples;
+        final int acLength = geometry.acSamples;
+        final int alPixPerSample = geometry.alSampleSize;
+        final int acPixPerSample = geometry.acSampleSize;
+
+        // Get (unclassified) sources
+        final List<Source> sources = getConnectedComponents(samples, alLength, acLength, alPixPerSample,
+                acPixPerSample, geometry.neighbourhood, bkg[0], bkg[1], workspace);
+
+        // Compute the statistics of each source, and extract the bright sources in place
+        SourceStatistics.computeStatistics(sources, samples, alLength, acLength, alPixPerSample, acPixPerSample, bkg,
+                workspace);
+
+        return sources;
+    }
+
+    /**
+     * Finds the connected components of the samples above the detection threshold.
+     *
+     * @param samples
+     *            Array of all samples (AC-packed)
+     * @param alLength
+     *            Length of samples window in AL direction
+     * @param acLength
+     *            Length of samples window in AC direction
+     * @param alPixPerSample
+     *            Number of pixels in a sample, in the AL direction
+     * @param acPixPerSample
+     *            Number of pixels in a sample, in the AC direction
+     * @param neighbourhood
+     *            The pixel neighbourhood for the window geometry; see {@link Direction#getNeighbourhood(int, int)}
+     * @param bkg
+     *            Background level
+     * @param bkgError
+     *            Uncertainty (standard deviation) on the background level
+     * @param workspace
+     *            The {@link DetectionWorkspace} of the calling thread, already sized for the window
+     * @return List containing all the Sources detected. On exit the indices of the samples of each Source are also
+     *         available from {@link DetectionWorkspace#getSourceSamples()} and
+     *         {@link DetectionWorkspace#getSourceOffsets()}, in the same order.
+     */
+    private static List<Source> getConnectedComponents(float[] samples, int alLength, int acLength,
+            int alPixPerSample, int acPixPerSample, Direction[] neighbourhood, double bkg, double bkgError,
+            DetectionWorkspace workspace) {
+
+        final int n = alLength * acLength;
+
+        // Parent of each sample in the union-find forest; -1 for samples below the threshold
+        final int[] parents = workspace.getParents();
+
+        // Samples above this level will be considered source
+        final double detectionThreshold = bkg + SourceDetector.SOURCE_DETECTION_THRESHOLD_SIGMAS * bkgError;
+
+        // Join each sample above the threshold to its neighbours above the threshold that have already been scanned
+        for (int i = 0; i < n; i++) {
+            if (!(samples[i] > detectionThreshold)) {
+                parents[i] = -1;
+                continue;
+            }
+            parents[i] = i;
+            final int al = i / acLength;
+            final int ac = i % acLength;
+            for (final Direction dir : neighbourhood) {
+                final int al_i = al + dir.dal;
+                final int ac_i = ac + dir.dac;
+                if (al_i < 0 || al_i >= alLength || ac_i < 0 || ac_i >= acLength) {
+                    continue;
+                }
+                final int j = al_i * acLength + ac_i;
+                if (j < i && parents[j] >= 0) {
+                    union(parents, i, j);
+                }
+            }
+        }
+
+        // Label each component; the root of each component is its first sample, so it's labelled before the others
+        final int[] labels = workspace.getFirstLabels();
+        final int[] sourceOffsets = workspace.getSourceOffsets();
+        int nLabels = 0;
+        for (int i = 0; i < n; i++) {
+            if (parents[i] < 0) {
+                continue;
+            }
+            final int root = find(parents, i);
+            if (root == i) {
+                labels[i] = nLabels;
+                sourceOffsets[++nLabels] = 0;
+            } else {
+                labels[i] = labels[root];
+            }
+            sourceOffsets[labels[i] + 1]++;
+        }
+        sourceOffsets[0] = 0;
+        for (int l = 0; l < nLabels; l++) {
+            sourceOffsets[l + 1] += sourceOffsets[l];
+        }
+
+        // Assign each sample to its source; the last-label buffer isn't used here, so holds the next free position
+        // for each source
+        final int[] sourceSamples = workspace.getSourceSamples();
+        final int[] next = workspace.getLastLabels();
+        System.arraycopy(sourceOffsets, 0, next, 0, nLabels);
+        for (int i = 0; i < n; i++) {
+            if (parents[i] >= 0) {
+                sourceSamples[next[labels[i]]++] = i;
+            }
+        }
+
+        // Create the sources in compact form, referring back to the samples array
+        final List<Source> sources = new ArrayList<>(nLabels);
+        for (int l = 0; l < nLabels; l++) {
+            sources.add(new Source(alPixPerSample, acPixPerSample, alLength, acLength, samples,
+                    Arrays.copyOfRange(sourceSamples, sourceOffsets[l], sourceOffsets[l + 1])));
+        }
+
+        return sources;
+    }
+
+    /**
+     * Finds the root of the tree containing the given sample, halving the path to the root on the way.
+     *
+     * @param parents
+     *            The parent of each sample
+     * @param i
+     *            The index of the sample
+     * @return The index of the root sample
+     */
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * Joins the trees containing the two samples. The root with the lower index becomes the root of the joined tree,
+     * so that the root of each tree is always its first sample in raster order.
+     *
+     * @param parents
+     *            The parent of each sample
+     * @param i
+     *            The index of the first sample
+     * @param j
+     *            The index of the second sample
+     */
+    private static void union(int[] parents, int i, int j) {
+        final int ri = find(parents, i);
+        final int rj = find(parents, j);
+        if (ri < rj) {
+            parents[rj] = ri;
+        } else if (rj < ri) {
+            parents[ri] = rj;
+        }
+    }
+}
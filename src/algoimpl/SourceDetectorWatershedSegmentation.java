@@ -6,7 +6,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Logger;
 
+import algo.DetectionWorkspace;
 import algo.SourceDetector;
+import algo.WindowGeometry;
 import dm.Sample;
 import dm.Source;
 import util.Direction;
@@ -37,27 +39,68 @@ public class SourceDetectorWatershedSegmentation extends SourceDetector {
     private static final double CONNECTIVITY_THRESHOLD_SIGMAS = 2.0;
 
     /**
-     * This implementation of {@link SourceDetector#getSources(double[], int, int, int, int, double[], boolean)} is
-     * based on the watershed segmentation algorithm.
+     * The {@link WatershedEngine} for each thread.
+     */
+    private static final ThreadLocal<WatershedEngine> engines = new ThreadLocal<WatershedEngine>() {
+        @Override
+        protected WatershedEngine initialValue() {
+            return new WatershedEngine();
+        }
+    };
+
+    /**
+     * If true, the segmentation is performed by the primitive-array {@link WatershedEngine}; otherwise the original
+     * object-based implementation {@link #getWatershedSegmentation} is used. Both give identical results.
+     */
+    private final boolean usePrimitiveEngine;
+
+    /**
+     * Default constructor for the {@link SourceDetectorWatershedSegmentation}, which uses the primitive-array
+     * {@link WatershedEngine}.
+     */
+    public SourceDetectorWatershedSegmentation() {
+        this(true);
+    }
+
+    /**
+     * Main constructor for the {@link SourceDetectorWatershedSegmentation}.
+     *
+     * @param usePrimitiveEngine
+     *            If true, the segmentation is performed by the primitive-array {@link WatershedEngine}; otherwise the
+     *            original object-based implementation is used.
+     */
+    public SourceDetectorWatershedSegmentation(boolean usePrimitiveEngine) {
+        this.usePrimitiveEngine = usePrimitiveEngine;
+    }
+
+    /**
+     * This implementation of {@link SourceDetector#getSources(float[], WindowGeometry, double[], DetectionWorkspace)}
+     * is based on the watershed segmentation algorithm.
      */
     @Override
-    protected List<Source> getSources(float[] samples, int alLength, int acLength, int alPixPerSample,
-            int acPixPerSample, double[] bkg) {
+    protected List<Source> getSources(float[] samples, WindowGeometry geometry, double[] bkg,
+            DetectionWorkspace workspace) {
+
+        if (usePrimitiveEngine) {
+            return getSourcesPrimitive(samples, geometry, bkg, workspace);
+        }
+
+        final int alLength = geometry.alSamples;
+        final int acLength = geometry.acSamples;
+        final int alPixPerSample = geometry.alSampleSize;
+        final int acPixPerSample = geometry.acSampleSize;
 
         // Get (unclassified) sources
         final List<Source> sources = getWatershedSegmentation(samples, alLength, acLength, alPixPerSample,
                 acPixPerSample, bkg[0], bkg[1]);
 
-        // Compute some statistics of the source intensity distribution that will aid in source classification.
-        for (final Source source : sources) {
-            computeSourceFluxStatistics(source, samples, alLength, acLength, bkg);
-            computeSourceShapeStatistics(source, samples, alLength, acLength, alPixPerSample, acPixPerSample, bkg);
-        }
-
-        // Extract bright sources from array
+        // Compute some statistics of the source intensity distribution that will aid in source classification, and
+        // extract the bright sources. The shape statistics are only computed for the bright sources.
         final List<Source> brightSources = new LinkedList<>();
         for (final Source source : sources) {
+            computeSourceFluxStatistics(source, samples, alLength, acLength, bkg);
             if (source.getFlux() > SourceDetector.FAINT_SOURCE_FLUX_THRESHOLD_E) {
+                computeSourceShapeStatistics(source, samples, alLength, acLength, alPixPerSample, acPixPerSample, bkg);
                 brightSources.add(source);
             }
         }
@@ -65,6 +108,40 @@ public class SourceDetectorWatershedSegmentation extends SourceDetector {
         return brightSources;
     }
 
+    /**
+     * Equivalent of {@link #getSources(float[], WindowGeometry, double[], DetectionWorkspace)} that uses the
+     * {@link WatershedEngine} for the segmentation and borrows all scratch buffers from the
+     * {@link DetectionWorkspace}, so that it allocates nothing apart from the {@link Source}s returned.
+     *
+     * @param samples
+     *            Array of all samples (AC-packed) [e-]
+     * @param geometry
+     *            The {@link WindowGeometry} of the window
+     * @param bkg
+     *            Background level and error (STD)
+     * @param workspace
+     *            The {@link DetectionWorkspace} of the calling thread, already sized for the window
+     * @return List containing the Sources detected in the window
+     */
+    private static List<Source> getSourcesPrimitive(float[] samples, WindowGeometry geometry, double[] bkg,
+            DetectionWorkspace workspace) {
+
+        final int alLength = geometry.alSamples;
+        final int acLength = geometry.acSamples;
+        final int alPixPerSample = geometry.alSampleSize;
+        final int acPixPerSample = geometry.acSampleSize;
+
+        // Get (unclassified) sources
+        final List<Source> sources = engines.get().segment(samples, alLength, acLength, alPixPerSample,
+                acPixPerSample, geometry.neighbourhood, bkg[0], bkg[1], CONNECTIVITY_THRESHOLD_SIGMAS, workspace);
+
+        // Compute the statistics of each source, and extract the bright sources in place
+        SourceStatistics.computeStatistics(sources, samples, alLength, acLength, alPixPerSample, acPixPerSample, bkg,
+                workspace);
+
+        return sources;
+    }
+
     /**
      * Static inner class so that we can use arrays of lists to record the source assignments for each sample in the
      * watershed algorithm below.
@@ -266,6 +343,10 @@ public class SourceDetectorWatershedSegmentation extends SourceDetector {
      * new source until the full area has been detected. This makes it easier to merge sources by not fragmenting them
      * in the first place.
      *
+     * This implementation is incomplete, since samples connected to several existing sources are left unassigned
+     * rather than merging the sources; see {@link SourceDetectorUnionFind} for a complete connected-component
+     * detector.
+     *
      * @param samplesRaw
      *            Array of all samples (AC-packed)
      * @param alLength
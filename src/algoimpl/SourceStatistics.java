@@ -0,0 +1,313 @@
+package algoimpl;
+
+import java.util.List;
+
+import algo.DetectionWorkspace;
+import algo.SourceDetector;
+import dm.Sample;
+import dm.Source;
+import util.Direction;
+import util.FloatList;
+
+/**
+ * Computes the flux and shape statistics of the {@link Source}s found by the primitive-array segmentations, working
+ * on sample indices and the scratch buffers of the {@link DetectionWorkspace} rather than on {@link Sample} objects.
+ * The results are identical to those of the original object-based implementation in
+ * {@link SourceDetectorWatershedSegmentation}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+final class SourceStatistics {
+
+    /**
+     * Private constructor: only static methods.
+     */
+    private SourceStatistics() {
+    }
+
+    /**
+     * Computes the flux and shape statistics of each Source, removing the faint Sources (those with integrated flux
+     * not above {@link SourceDetector#FAINT_SOURCE_FLUX_THRESHOLD_E}) from the list in place. The remaining statistics
+     * are not computed for the faint Sources.
+     *
+     * @param sources
+     *            The Sources found by the segmentation; the samples of source s must be given by
+     *            {@link DetectionWorkspace#getSourceSamples()} and {@link DetectionWorkspace#getSourceOffsets()}.
+     * @param samples
+     *            The array of raw samples
+     * @param alLength
+     *            The number of samples in the AL direction
+     * @param acLength
+     *            The number of samples in the AC direction
+     * @param alPixPerSample
+     *            Number of pixels in a sample, in the AL direction
+     * @param acPixPerSample
+     *            Number of pixels in a sample, in the AC direction
+     * @param bkg
+     *            The background level and error
+     * @param workspace
+     *            The {@link DetectionWorkspace} of the calling thread
+     */
+    static void computeStatistics(List<Source> sources, float[] samples, int alLength, int acLength,
+            int alPixPerSample, int acPixPerSample, double[] bkg, DetectionWorkspace workspace) {
+
+        int nBright = 0;
+        for (int s = 0; s < sources.size(); s++) {
+            final Source source = sources.get(s);
+            if (computeSourceStatistics(source, workspace.getSourceSamples(), workspace.getSourceOffsets()[s],
+                    workspace.getSourceOffsets()[s + 1], samples, alLength, acLength, alPixPerSample, acPixPerSample,
+                    bkg[0], workspace)) {
+                sources.set(nBright++, source);
+            }
+        }
+        while (sources.size() > nBright) {
+            sources.remove(sources.size() - 1);
+        }
+    }
+
+    /**
+     * Computes the flux and shape statistics of the Source, and sets the relevant fields:
+     * <ul>
+     * <li>the integrated flux, peak flux, and the ratio of the peak flux to the median flux of the immediate neighbours
+     * of the peak sample (which may not be members of the source);</li>
+     * <li>the eigenvalues and orientation of the flux-weighted sample position dispersion matrix, computed from the peak
+     * sample and its immediate neighbours (regardless of whether they were marked as part of the source - this is
+     * necessary for cosmic rays), then any other samples of the source.</li>
+     * </ul>
+     *
+     * The integrated flux is computed first, and if the Source is faint (see
+     * {@link SourceDetector#FAINT_SOURCE_FLUX_THRESHOLD_E}) it's set along with the peak flux and nothing else is
+     * computed, as the Source will be discarded.
+     *
+     * The samples of the Source are read once, to compute the integrated flux, locate the peak and copy the flux and
+     * position of each sample used for the shape into the workspace buffers; the centroid and dispersion are then
+     * computed from the buffers. Samples and terms are accumulated in the same order as the original implementation, so
+     * the results are numerically identical; the moments are computed about the centroid in a second pass over the
+     * buffers, rather than from raw moments, for the same reason.
+     *
+     * @param source
+     *            The Source to update
+     * @param sourceSamples
+     *            Array containing the indices of the samples of the Source, in the same order as its Samples
+     * @param from
+     *            Position in sourceSamples of the first sample of the Source (inclusive)
+     * @param to
+     *            Position in sourceSamples of the last sample of the Source (exclusive)
+     * @param samples
+     *            The array of raw samples
+     * @param alLength
+     *            The number of samples in the AL direction
+     * @param acLength
+     *            The number of samples in the AC direction
+     * @param alPixPerSample
+     *            Number of pixels in a sample, in the AL direction. Used to scale sample coordinates to pixel
+     *            coordinates for the shape statistics.
+     * @param acPixPerSample
+     *            Number of pixels in a sample, in the AC direction. Used to scale sample coordinates to pixel
+     *            coordinates for the shape statistics.
+     * @param bkg
+     *            The background level
+     * @param workspace
+     *            The {@link DetectionWorkspace} of the calling thread, from which the buffers are borrowed
+     * @return True if the Source is bright enough to be kept, in which case all the statistics have been computed
+     */
+    static boolean computeSourceStatistics(Source source, int[] sourceSamples, int from, int to, float[] samples,
+            int alLength, int acLength, int alPixPerSample, int acPixPerSample, double bkg,
+            DetectionWorkspace workspace) {
+
+        // Select appropriate pixel neighbourhood based on samples geometry
+        Direction[] neighbourhood = null;
+        if (alLength == 1) {
+            // 1D windows with no AL extent (e.g. 2D windows that have been marginalised)
+            neighbourhood = Direction.NORTH_SOUTH;
+        } else if (acLength == 1) {
+            // 1D windows with no AC extent (e.g. all window class 1 & 2 transits)
+            neighbourhood = Direction.EAST_WEST;
+        } else {
+            // 2D windows (e.g. class 0 transits, and all SM)
+            neighbourhood = Direction.EIGHT_NEIGHBOURS;
+        }
+
+        // Integrated flux, and the largest background-subtracted sample and it's index. Note that the shape
+        // statistics locate the peak by the raw sample level, which is tracked separately.
+        double intFlux = 0.0;
+        double peakFlux = -Double.MAX_VALUE;
+        int fluxPeak = 0;
+        int shapePeak = from < to ? sourceSamples[from] : 0;
+
+        for (int t = from; t < to; t++) {
+            final int i = sourceSamples[t];
+            final double bkgSubSample = samples[i] - bkg;
+            intFlux += bkgSubSample;
+            if (bkgSubSample > peakFlux) {
+                peakFlux = bkgSubSample;
+                fluxPeak = i;
+            }
+            if (samples[i] > samples[shapePeak]) {
+                shapePeak = i;
+            }
+        }
+        source.setFlux(intFlux);
+        source.setPeakFlux(peakFlux);
+
+        // Faint sources are discarded, so there's no need for the rest of the statistics
+        if (!(intFlux > SourceDetector.FAINT_SOURCE_FLUX_THRESHOLD_E)) {
+            return false;
+        }
+
+        final float[] fluxNeighbours = workspace.getNeighbourFluxes();
+        final double[] fluxes = workspace.getShapeFluxes();
+        final double[] acPos = workspace.getShapeAcPositions();
+        final double[] alPos = workspace.getShapeAlPositions();
+        final boolean hasShape = from < to;
+
+        // Neighbours of the peak sample: their fluxes for the flux ratio and, if the peak is the same for the shape
+        // statistics (as it is unless there are ties), the first of the samples for the shape statistics.
+        int nFluxNeighbours = 0;
+        int nShape = 0;
+        for (final Direction dir : neighbourhood) {
+            final int al_i = fluxPeak / acLength + dir.dal;
+            final int ac_i = fluxPeak % acLength + dir.dac;
+            if (al_i < 0 || al_i >= alLength || ac_i < 0 || ac_i >= acLength) {
+                continue;
+            }
+            final int j = al_i * acLength + ac_i;
+            fluxNeighbours[nFluxNeighbours++] = (float) (samples[j] - bkg);
+            if (hasShape && shapePeak == fluxPeak) {
+                fluxes[nShape] = samples[j] - bkg;
+                acPos[nShape] = ac_i * acPixPerSample;
+                alPos[nShape] = al_i * alPixPerSample;
+                nShape++;
+            }
+        }
+        source.setFluxRatio(peakFlux / FloatList.getPercentile(fluxNeighbours, nFluxNeighbours, 50.0f));
+
+        final double[] eigs = new double[] { Double.NaN, Double.NaN };
+        if (!hasShape) {
+            source.setEigenvalues(eigs);
+            source.setOrientation(Double.NaN);
+            return true;
+        }
+
+        final int peakAl = shapePeak / acLength;
+        final int peakAc = shapePeak % acLength;
+        if (shapePeak != fluxPeak) {
+            for (final Direction dir : neighbourhood) {
+                final int al_i = peakAl + dir.dal;
+                final int ac_i = peakAc + dir.dac;
+                if (al_i < 0 || al_i >= alLength || ac_i < 0 || ac_i >= acLength) {
+                    continue;
+                }
+                fluxes[nShape] = samples[al_i * acLength + ac_i] - bkg;
+                acPos[nShape] = ac_i * acPixPerSample;
+                alPos[nShape] = al_i * alPixPerSample;
+                nShape++;
+            }
+        }
+
+        // Then the samples of the source not already included, i.e. other than the neighbours of the peak. The
+        // neighbourhood for each geometry includes every in-window sample adjacent to the peak.
+        for (int t = from; t < to; t++) {
+            final int i = sourceSamples[t];
+            final int al = i / acLength;
+            final int ac = i % acLength;
+            if (i != shapePeak && Math.abs(al - peakAl) <= 1 && Math.abs(ac - peakAc) <= 1) {
+                continue;
+            }
+            fluxes[nShape] = samples[i] - bkg;
+            acPos[nShape] = ac * acPixPerSample;
+            alPos[nShape] = al * alPixPerSample;
+            nShape++;
+        }
+
+        // Compute the centre-of-flux [pix]
+        double acFluxCentre = 0.0;
+        double alFluxCentre = 0.0;
+        double sumFlux = 0.0;
+        for (int t = 0; t < nShape; t++) {
+            acFluxCentre += acPos[t] * fluxes[t];
+            alFluxCentre += alPos[t] * fluxes[t];
+            sumFlux += fluxes[t];
+        }
+        acFluxCentre /= sumFlux;
+        alFluxCentre /= sumFlux;
+
+        // Compute the flux-weighted sample position dispersion matrix [pix], as A =
+        // [a b]
+        // [b c]
+        double a = 0.0;
+        double b = 0.0;
+        double c = 0.0;
+        for (int t = 0; t < nShape; t++) {
+            final double weight = fluxes[t] / sumFlux;
+            a += (acPos[t] - acFluxCentre) * (acPos[t] - acFluxCentre) * weight;
+            b += (acPos[t] - acFluxCentre) * (alPos[t] - alFluxCentre) * weight;
+            c += (alPos[t] - alFluxCentre) * (alPos[t] - alFluxCentre) * weight;
+        }
+
+        setShapeStatistics(source, a, b, c, eigs);
+        return true;
+    }
+
+    /**
+     * Computes the eigenvalues and orientation of the flux-weighted sample position dispersion matrix
+     * <pre>
+     * [a b]
+     * [b c]
+     * </pre>
+     * and sets the relevant fields in the Source.
+     *
+     * @param source
+     *            The Source to update
+     * @param a
+     *            The AC variance [pix^2]
+     * @param b
+     *            The AC-AL covariance [pix^2]
+     * @param c
+     *            The AL variance [pix^2]
+     * @param eigs
+     *            Two-element array to store the eigenvalues in, initialised to NaN
+     */
+    private static void setShapeStatistics(Source source, double a, double b, double c, double[] eigs) {
+
+        double orientation = Double.NaN;
+
+        // Compute the eigenvalues: direct solution for 2x2 matrix
+        final double tr = a + c;
+        final double det = a * c - b * b;
+        double disc = tr * tr / 4.0 - det;
+        if (disc < 0.0) {
+            // Eigenvalues are complex; the dispersion matrix is real-symmetric so this should not happen
+            source.setEigenvalues(eigs);
+            source.setOrientation(orientation);
+            System.out.println("Eigenvalues complex");
+            return;
+        }
+        disc = Math.sqrt(disc);
+        final double l1 = tr / 2.0 + disc;
+        final double l2 = tr / 2.0 - disc;
+        eigs[0] = l1;
+        eigs[1] = l2;
+
+        // Assign an orientation wrt the AL direction by analysing the eigenvector corresponding to the largest
+        // eigenvalue.
+        if (b == 0.0) {
+            // Special case: principal axes align with AC/AL directions
+            if (a > c) {
+                orientation = Math.PI / 2.0;
+            } else {
+                orientation = 0.0;
+            }
+        } else {
+            final double lmax = Math.max(l1, l2);
+            final double v_al = Math.abs(1.0 / Math.sqrt(b * b / ((a - lmax) * (a - lmax)) + 1.0));
+            final double v_ac = Math.abs(Math.sqrt(1 - v_al));
+            orientation = Math.atan(v_ac / v_al);
+        }
+
+        source.setEigenvalues(eigs);
+        source.setOrientation(orientation);
+    }
+
+}
@@ -0,0 +1,346 @@
+package algoimpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import algo.DetectionWorkspace;
+import algo.SourceDetector;
+import dm.Sample;
+import dm.Source;
+import util.Direction;
+
+/**
+ * Primitive-array implementation of the watershed segmentation performed by
+ * {@link SourceDetectorWatershedSegmentation}. The algorithm and its outputs are identical to the original
+ * implementation, but rather than creating a {@link Sample} and a list of labels for every sample in the window
+ * the engine works directly on the {@code float[]} samples, using an {@code int[]} sort permutation (packed with the
+ * sort keys into a {@code long[]}) and {@code int[]} label arrays. The arrays are borrowed from the
+ * {@link DetectionWorkspace} of the calling thread, so that apart from the {@link Source}s returned the segmentation
+ * allocates nothing in the steady state. The {@link Source}s themselves are created in compact form, holding the
+ * indices of their samples rather than {@link Sample} objects, which are only created if they're requested.
+ *
+ * Instances are not thread safe: each thread should use its own {@link WatershedEngine}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class WatershedEngine {
+
+    /**
+     * Sort keys for the samples: the upper 32 bits encode the sample level such that ascending order of the key is
+     * decreasing order of level, and the lower 32 bits store the sample index. Sorting the keys therefore gives the
+     * permutation that sorts the samples into decreasing intensity order, with ties broken by sample index (i.e.
+     * the same order as a stable sort of the samples).
+     */
+    private long[] sortKeys;
+
+    /**
+     * The number of distinct source labels assigned to each sample, saturating at 2; only whether a sample has zero,
+     * one or several labels matters to the segmentation.
+     */
+    private byte[] nLabels;
+
+    /**
+     * The first source label assigned to each sample.
+     */
+    private int[] firstLabel;
+
+    /**
+     * The most recent source label assigned to each sample. Labels are assigned in increasing order, so this
+     * identifies whether a sample is already part of the region currently being grown.
+     */
+    private int[] lastLabel;
+
+    /**
+     * The samples added to the region currently being grown, in the order they were added; the position of a sample
+     * in this array is its sequence number within the region.
+     */
+    private int[] regionSamples;
+
+    /**
+     * The number of samples added to the region currently being grown.
+     */
+    private int regionSize;
+
+    /**
+     * The frontier of the region currently being grown, i.e. the samples that have been added to the region but
+     * whose neighbours have not yet been searched. This is a binary min-heap of keys in the same form as
+     * {@link #sortKeys} but with the sequence number of the sample in place of its index, so that the frontier is
+     * popped in decreasing intensity order with ties in the order the samples were added. Each push and pop costs
+     * O(log n), rather than re-sorting the whole frontier after every pop.
+     */
+    private long[] frontier;
+
+    /**
+     * The number of samples in the frontier.
+     */
+    private int frontierSize;
+
+    /**
+     * Buffer for the unlabelled neighbours of the sample being searched.
+     */
+    private int[] neighbours;
+
+    /**
+     * Borrows the work arrays from the {@link DetectionWorkspace}, which must already have been sized for the window.
+     *
+     * @param workspace
+     *            The {@link DetectionWorkspace} to borrow the arrays from
+     */
+    private void borrowArrays(DetectionWorkspace workspace) {
+        sortKeys = workspace.getSortKeys();
+        nLabels = workspace.getLabelCounts();
+        firstLabel = workspace.getFirstLabels();
+        lastLabel = workspace.getLastLabels();
+        regionSamples = workspace.getRegionSamples();
+        frontier = workspace.getFrontier();
+        neighbours = workspace.getNeighbours();
+    }
+
+    /**
+     * Full watershed segmentation; see {@link SourceDetectorWatershedSegmentation} for a description of the algorithm.
+     *
+     * @param samples
+     *            Array of all samples (AC-packed)
+     * @param alLength
+     *            Length of samples window in AL direction
+     * @param acLength
+     *            Length of samples window in AC direction
+     * @param alPixPerSample
+     *            Number of pixels in a sample, in the AL direction
+     * @param acPixPerSample
+     *            Number of pixels in a sample, in the AC direction
+     * @param neighbourhood
+     *            The pixel neighbourhood for the window geometry; see {@link Direction#getNeighbourhood(int, int)}
+     * @param bkg
+     *            Background level
+     * @param bkgError
+     *            Uncertainty (standard deviation) on the background level
+     * @param connectivityThresholdSigmas
+     *            Noise tolerance on the rise in intensity from one sample to a connected neighbour [sigmas]
+     * @param workspace
+     *            The {@link DetectionWorkspace} of the calling thread, already sized for the window
+     * @return List containing all the Sources detected. On exit the indices of the samples of each Source are also
+     *         available from {@link DetectionWorkspace#getSourceSamples()} and
+     *         {@link DetectionWorkspace#getSourceOffsets()}, in the same order.
+     */
+    public List<Source> segment(float[] samples, int alLength, int acLength, int alPixPerSample,
+            int acPixPerSample, Direction[] neighbourhood, double bkg, double bkgError,
+            double connectivityThresholdSigmas, DetectionWorkspace workspace) {
+
+        final int n = alLength * acLength;
+        borrowArrays(workspace);
+
+        // Sort the samples into order of decreasing intensity
+        for (int i = 0; i < n; i++) {
+            sortKeys[i] = getSortKey(samples[i], i);
+            nLabels[i] = 0;
+        }
+        Arrays.sort(sortKeys, 0, n);
+
+        // Samples above this level will be considered source
+        final double detectionThreshold = bkg + SourceDetector.SOURCE_DETECTION_THRESHOLD_SIGMAS * bkgError;
+
+        // Current source label; incremented each time a new source is found
+        int currentLabel = 0;
+
+        // Process samples in decreasing order of intensity
+        for (int k = 0; k < n; k++) {
+
+            final int i = (int) sortKeys[k];
+
+            // Is sample not already assigned to a source?
+            if (samples[i] > detectionThreshold && nLabels[i] == 0) {
+
+                // Found the start of a new source: expand the region and label all connected samples
+                regionSize = 0;
+                frontierSize = 0;
+                addToFrontier(i, samples);
+                addLabel(i, currentLabel);
+
+                while (frontierSize > 0) {
+
+                    // Remove the brightest sample from the frontier
+                    final int s = pollFrontier();
+                    final double sampleLevel = samples[s];
+                    final int al = s / acLength;
+                    final int ac = s % acLength;
+
+                    // Find the neighbouring samples not already labelled as part of this region, in decreasing
+                    // order of intensity
+                    int nNeighbours = 0;
+                    for (final Direction dir : neighbourhood) {
+                        final int al_i = al + dir.dal;
+                        final int ac_i = ac + dir.dac;
+                        if (al_i < 0 || al_i >= alLength || ac_i < 0 || ac_i >= acLength) {
+                            continue;
+                        }
+                        final int j = al_i * acLength + ac_i;
+                        if (nLabels[j] > 0 && lastLabel[j] == currentLabel) {
+                            continue;
+                        }
+                        // Insertion sort, placing the neighbour after any of equal intensity
+                        int p = nNeighbours++;
+                        while (p > 0 && samples[neighbours[p - 1]] < samples[j]) {
+                            neighbours[p] = neighbours[p - 1];
+                            p--;
+                        }
+                        neighbours[p] = j;
+                    }
+
+                    // Check each neighbour in turn to determine if it's part of this source
+                    for (int t = 0; t < nNeighbours; t++) {
+
+                        final int j = neighbours[t];
+                        final double neighbourLevel = samples[j];
+
+                        if (neighbourLevel <= detectionThreshold) {
+                            // The remaining neighbour samples will all be lower than this
+                            break;
+                        }
+
+                        // Intensity difference between current sample and this neighbour
+                        final double diff = neighbourLevel - sampleLevel;
+
+                        // Either the intensity drops from the current sample to the neighbour, or it rises by
+                        // less than the noise tolerance (assuming Poisson statistics for the background-subtracted
+                        // levels): the neighbour is part of this source.
+                        if (diff <= 0 || diff < connectivityThresholdSigmas
+                                * Math.sqrt((neighbourLevel - bkg) + (sampleLevel - bkg))) {
+                            addToFrontier(j, samples);
+                            addLabel(j, currentLabel);
+                        }
+                    }
+                }
+
+                // Finished labelling this region; increment label for next region
+                currentLabel++;
+            }
+        }
+
+        // Number of regions detected is indicated in the value of currentLabel.
+        // Count the uniquely-labelled samples in each source, to locate each source in the grouped sample indices
+        final int[] sourceOffsets = workspace.getSourceOffsets();
+        final int[] sourceSamples = workspace.getSourceSamples();
+        Arrays.fill(sourceOffsets, 0, currentLabel + 1, 0);
+        for (int i = 0; i < n; i++) {
+            if (nLabels[i] == 1) {
+                sourceOffsets[firstLabel[i] + 1]++;
+            }
+        }
+        for (int l = 0; l < currentLabel; l++) {
+            sourceOffsets[l + 1] += sourceOffsets[l];
+        }
+
+        // Assign each uniquely-labelled sample to the right source
+        for (int i = 0; i < n; i++) {
+            if (nLabels[i] == 1) {
+                sourceSamples[sourceOffsets[firstLabel[i]]++] = i;
+            }
+        }
+
+        // Each offset has now advanced to the start of the next source; shift them back
+        for (int l = currentLabel; l > 0; l--) {
+            sourceOffsets[l] = sourceOffsets[l - 1];
+        }
+        sourceOffsets[0] = 0;
+
+        // Create the sources in compact form, referring back to the samples array
+        final List<Source> sources = new ArrayList<>(currentLabel);
+        for (int l = 0; l < currentLabel; l++) {
+            sources.add(new Source(alPixPerSample, acPixPerSample, alLength, acLength, samples,
+                    Arrays.copyOfRange(sourceSamples, sourceOffsets[l], sourceOffsets[l + 1])));
+        }
+
+        return sources;
+    }
+
+    /**
+     * Computes the sort key for the sample; see {@link #sortKeys}.
+     *
+     * @param level
+     *            The sample level
+     * @param index
+     *            The index of the sample
+     * @return The sort key
+     */
+    private static long getSortKey(float level, int index) {
+        // Map the float to an int with the same ordering; -0.0 and 0.0 compare equal, as for the sample levels
+        final int bits = Float.floatToIntBits(level == 0.0f ? 0.0f : level);
+        final int ordered = bits ^ ((bits >> 31) & 0x7fffffff);
+        return ((long) ~ordered << 32) | index;
+    }
+
+    /**
+     * Records that the sample has been assigned the given label.
+     *
+     * @param i
+     *            The index of the sample
+     * @param label
+     *            The source label
+     */
+    private void addLabel(int i, int label) {
+        if (nLabels[i] == 0) {
+            firstLabel[i] = label;
+            nLabels[i] = 1;
+        } else {
+            nLabels[i] = 2;
+        }
+        lastLabel[i] = label;
+    }
+
+    /**
+     * Adds the sample to the region currently being grown, and pushes it onto the frontier heap.
+     *
+     * @param j
+     *            The index of the sample
+     * @param samples
+     *            Array of all samples
+     */
+    private void addToFrontier(int j, float[] samples) {
+        final int seq = regionSize++;
+        regionSamples[seq] = j;
+        final long key = getSortKey(samples[j], seq);
+        // Sift up
+        int p = frontierSize++;
+        while (p > 0) {
+            final int parent = (p - 1) >>> 1;
+            if (frontier[parent] <= key) {
+                break;
+            }
+            frontier[p] = frontier[parent];
+            p = parent;
+        }
+        frontier[p] = key;
+    }
+
+    /**
+     * Removes the brightest sample from the frontier heap; of samples of equal intensity, the one added to the
+     * region first is removed.
+     *
+     * @return The index of the sample
+     */
+    private int pollFrontier() {
+        final long top = frontier[0];
+        final long last = frontier[--frontierSize];
+        // Sift down
+        int p = 0;
+        while (true) {
+            int child = 2 * p + 1;
+            if (child >= frontierSize) {
+                break;
+            }
+            if (child + 1 < frontierSize && frontier[child + 1] < frontier[child]) {
+                child++;
+            }
+            if (last <= frontier[child]) {
+                break;
+            }
+            frontier[p] = frontier[child];
+            p = child;
+        }
+        frontier[p] = last;
+        return regionSamples[(int) top];
+    }
+}
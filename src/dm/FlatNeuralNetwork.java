@@ -0,0 +1,377 @@
+package dm;
+
+/**
+ * Inference-only form of a trained {@link NeuralNetwork}, in which the weights of each layer are packed into a single
+ * contiguous row-major array rather than held by individual {@link SigmoidNeuron}s.
+ *
+ * Instances are immutable, and the activations of each layer are written to buffers supplied by the caller (see
+ * {@link #createActivations()}) rather than held by the network. A single instance can therefore be shared by any
+ * number of threads without locking, as long as each thread uses its own activation buffers, and computing the network
+ * output allocates nothing. With the {@link SigmoidFunction#EXACT} activation (the default) the outputs are identical
+ * to those of the {@link NeuralNetwork} that it was created from; the faster {@link SigmoidFunction#TABLE} activation
+ * can be selected instead, at the cost of a small (bounded) error in the outputs.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class FlatNeuralNetwork {
+
+	/**
+	 * The number of inputs processed together in each block of a batch by
+	 * {@link #getMaxOutputIndices(double[], int, int[], double[][])}; the activations of each block are small
+	 * enough to stay in the cache between layers.
+	 */
+	public static final int BATCH_BLOCK_SIZE = 128;
+
+	/**
+	 * The weights of each layer: weights[l] contains the weights of the neurons in layer l in row-major order, i.e.
+	 * the weight applied to input k of neuron j is weights[l][j * numInputs(l) + k], where numInputs(l) is the number
+	 * of inputs to the layer.
+	 */
+	private final double[][] weights;
+
+	/**
+	 * The biases of each layer: biases[l][j] is the bias of neuron j in layer l.
+	 */
+	private final double[][] biases;
+
+	/**
+	 * The number of inputs to the network.
+	 */
+	private final int numInputs;
+
+	/**
+	 * The number of outputs from the network (equals the number of neurons in the final layer).
+	 */
+	private final int numOutputs;
+
+	/**
+	 * The function used to compute the activation of each neuron.
+	 */
+	private final SigmoidFunction sigmoid;
+
+	/**
+	 * Constructor for a {@link FlatNeuralNetwork} with the given architecture and parameters.
+	 *
+	 * @param neuronsPerLayer
+	 * 	Number of neurons in each layer
+	 * @param numInputs
+	 * 	Number of inputs to the first layer
+	 * @param params
+	 * 	The parameters of each constituent neuron, in the order used by {@link NeuralNetwork#getNetworkParameters()}
+	 */
+	public FlatNeuralNetwork(int[] neuronsPerLayer, int numInputs, double[] params) {
+		this(neuronsPerLayer, numInputs, params, SigmoidFunction.EXACT);
+	}
+
+	/**
+	 * Constructor for a {@link FlatNeuralNetwork} with the given architecture, parameters and activation function.
+	 *
+	 * @param neuronsPerLayer
+	 * 	Number of neurons in each layer
+	 * @param numInputs
+	 * 	Number of inputs to the first layer
+	 * @param params
+	 * 	The parameters of each constituent neuron, in the order used by {@link NeuralNetwork#getNetworkParameters()}
+	 * @param sigmoid
+	 * 	The function used to compute the activation of each neuron
+	 */
+	public FlatNeuralNetwork(int[] neuronsPerLayer, int numInputs, double[] params, SigmoidFunction sigmoid) {
+
+		// Check we've got the right number of parameters for the network architecture
+		int numParams = 0;
+		for(int l=0; l<neuronsPerLayer.length; l++) {
+			int n = (l==0) ? numInputs : neuronsPerLayer[l-1];
+			numParams += neuronsPerLayer[l] * (n + 1);
+		}
+		if(params.length != numParams) {
+			throw new IllegalArgumentException("Expected "+numParams+" parameters, "
+					+ "found "+params.length+"!");
+		}
+
+		this.numInputs = numInputs;
+		this.sigmoid = sigmoid;
+		this.numOutputs = neuronsPerLayer[neuronsPerLayer.length-1];
+		this.weights = new double[neuronsPerLayer.length][];
+		this.biases = new double[neuronsPerLayer.length][];
+
+		// Index into the parameters array of the parameters for the current neuron
+		int paramIdx = 0;
+
+		for(int l=0; l<neuronsPerLayer.length; l++) {
+
+			// Number of inputs to the neurons in this layer
+			int n = (l==0) ? numInputs : neuronsPerLayer[l-1];
+
+			weights[l] = new double[neuronsPerLayer[l] * n];
+			biases[l] = new double[neuronsPerLayer[l]];
+
+			// The parameters of each neuron are its weights followed by its bias
+			for(int j=0; j<neuronsPerLayer[l]; j++) {
+				System.arraycopy(params, paramIdx, weights[l], j * n, n);
+				paramIdx += n;
+				biases[l][j] = params[paramIdx++];
+			}
+		}
+	}
+
+	/**
+	 * Constructor for a {@link FlatNeuralNetwork} from the current parameters of the given {@link NeuralNetwork}.
+	 * Later changes to the {@link NeuralNetwork} do not affect the {@link FlatNeuralNetwork}.
+	 *
+	 * @param network
+	 * 	The {@link NeuralNetwork}
+	 */
+	public FlatNeuralNetwork(NeuralNetwork network) {
+		this(network, SigmoidFunction.EXACT);
+	}
+
+	/**
+	 * Constructor for a {@link FlatNeuralNetwork} from the current parameters of the given {@link NeuralNetwork}, with
+	 * the given activation function. Later changes to the {@link NeuralNetwork} do not affect the
+	 * {@link FlatNeuralNetwork}.
+	 *
+	 * @param network
+	 * 	The {@link NeuralNetwork}
+	 * @param sigmoid
+	 * 	The function used to compute the activation of each neuron
+	 */
+	public FlatNeuralNetwork(NeuralNetwork network, SigmoidFunction sigmoid) {
+		this(getNeuronsPerLayer(network), network.numInputs, network.getNetworkParameters(), sigmoid);
+	}
+
+	/**
+	 * Get the number of neurons in each layer of the {@link NeuralNetwork}.
+	 *
+	 * @param network
+	 * 	The {@link NeuralNetwork}
+	 * @return
+	 * 	The number of neurons in each layer
+	 */
+	private static int[] getNeuronsPerLayer(NeuralNetwork network) {
+		int[] neuronsPerLayer = new int[network.numLayers];
+		for(int l=0; l<network.numLayers; l++) {
+			neuronsPerLayer[l] = network.neurons[l].length;
+		}
+		return neuronsPerLayer;
+	}
+
+	/**
+	 * Get the number of inputs to the network.
+	 *
+	 * @return
+	 * 	The number of inputs to the network.
+	 */
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	/**
+	 * Get the number of outputs from the network.
+	 *
+	 * @return
+	 * 	The number of outputs from the network.
+	 */
+	public int getNumOutputs() {
+		return numOutputs;
+	}
+
+	/**
+	 * Get the function used to compute the activation of each neuron.
+	 *
+	 * @return
+	 * 	The function used to compute the activation of each neuron.
+	 */
+	public SigmoidFunction getSigmoidFunction() {
+		return sigmoid;
+	}
+
+	/**
+	 * Creates a set of buffers for the activations of each layer, for use with
+	 * {@link #getNetworkOutput(double[], double[][])}. Each thread should use its own buffers.
+	 *
+	 * @return
+	 * 	A set of buffers for the activations of each layer; the leading index specifies the layer.
+	 */
+	public double[][] createActivations() {
+		double[][] a = new double[biases.length][];
+		for(int l=0; l<biases.length; l++) {
+			a[l] = new double[biases[l].length];
+		}
+		return a;
+	}
+
+	/**
+	 * Computes the output values of the network for the given inputs. On exit, the elements of the activations
+	 * buffers contain the outputs of each layer of neurons in the network.
+	 *
+	 * @param inputs
+	 * 	The inputs to the network.
+	 * @param a
+	 * 	The buffers for the activations of each layer, as created by {@link #createActivations()}.
+	 * @return
+	 * 	The output from each neuron in the final layer; this is the final element of the activations buffers.
+	 */
+	public double[] getNetworkOutput(double[] inputs, double[][] a) {
+
+		// Sanity check on inputs
+		if(inputs.length != numInputs) {
+			throw new IllegalArgumentException("Number of provided inputs ("+inputs.length+") "
+					+ "doesn't match the number set on construction of the network ("+numInputs+")!");
+		}
+
+		for(int l=0; l<weights.length; l++) {
+
+			// Get the inputs to this layer - either the original inputs (for layer one)
+			// or the outputs from the previous layer.
+			final double[] x = (l==0) ? inputs : a[l-1];
+			final double[] w = weights[l];
+			final double[] b = biases[l];
+			final double[] out = a[l];
+			final int n = x.length;
+
+			for(int j=0; j<b.length; j++) {
+				// Dot product of inputs and neuron weights, then apply the bias
+				double z = 0;
+				final int row = j * n;
+				for(int k=0; k<n; k++) {
+					z += w[row + k] * x[k];
+				}
+				z += b[j];
+
+				// Compute the activation - the sigmoid function
+				out[j] = sigmoid.value(z);
+			}
+		}
+
+		return a[weights.length-1];
+	}
+
+	/**
+	 * Computes the output values of the network for the given inputs and finds the largest. In classification problems
+	 * this is the index of the class assigned to the inputs.
+	 *
+	 * @param inputs
+	 * 	The inputs to the network.
+	 * @param a
+	 * 	The buffers for the activations of each layer, as created by {@link #createActivations()}.
+	 * @return
+	 * 	The index of the largest output value; in the case of ties, the first of them.
+	 */
+	public int getMaxOutputIndex(double[] inputs, double[][] a) {
+		return getMaxIndex(getNetworkOutput(inputs, a), 0, numOutputs);
+	}
+
+	/**
+	 * Creates a set of buffers for the activations of each layer, for use with
+	 * {@link #getMaxOutputIndices(double[], int, int[], double[][])}. Each thread should use its own buffers.
+	 *
+	 * @return
+	 * 	A set of buffers for the activations of each layer for a block of {@link #BATCH_BLOCK_SIZE} inputs; the leading
+	 * index specifies the layer, and the activations for each input are stored contiguously in the trailing dimension.
+	 */
+	public double[][] createBatchActivations() {
+		double[][] a = new double[biases.length][];
+		for(int l=0; l<biases.length; l++) {
+			a[l] = new double[BATCH_BLOCK_SIZE * biases[l].length];
+		}
+		return a;
+	}
+
+	/**
+	 * Computes the output values of the network for a batch of inputs and finds the index of the largest output for
+	 * each. In classification problems this is the index of the class assigned to each set of inputs. The results are
+	 * identical to calling {@link #getMaxOutputIndex(double[], double[][])} for each set of inputs in turn.
+	 *
+	 * The inputs are processed in blocks of {@link #BATCH_BLOCK_SIZE}. Within each block, each layer is computed as a
+	 * matrix multiplication of the block's inputs to the layer and the layer's weights, followed by the sigmoid applied
+	 * to all the weighted inputs in one loop.
+	 *
+	 * @param inputs
+	 * 	The inputs to the network, as an n x {@link #getNumInputs()} matrix in row-major order.
+	 * @param n
+	 * 	The number of sets of inputs in the batch.
+	 * @param indices
+	 * 	On exit, the first n elements contain the index of the largest output value for each set of inputs; in the
+	 * case of ties, the first of them.
+	 * @param a
+	 * 	The buffers for the activations of each layer, as created by {@link #createBatchActivations()}.
+	 */
+	public void getMaxOutputIndices(double[] inputs, int n, int[] indices, double[][] a) {
+
+		// Sanity check on inputs
+		if(inputs.length < n * numInputs) {
+			throw new IllegalArgumentException("Expected "+(n * numInputs)+" inputs for a batch of "+n+", "
+					+ "found "+inputs.length+"!");
+		}
+
+		for(int r0=0; r0<n; r0+=BATCH_BLOCK_SIZE) {
+
+			// Number of sets of inputs in this block
+			final int rows = Math.min(BATCH_BLOCK_SIZE, n - r0);
+
+			for(int l=0; l<weights.length; l++) {
+
+				// Get the inputs to this layer - either the original inputs for this block (for layer one)
+				// or the outputs from the previous layer.
+				final double[] x = (l==0) ? inputs : a[l-1];
+				final int xOffset = (l==0) ? r0 * numInputs : 0;
+				final int nIn = (l==0) ? numInputs : biases[l-1].length;
+				final double[] w = weights[l];
+				final double[] b = biases[l];
+				final double[] out = a[l];
+				final int m = b.length;
+
+				// Weighted inputs for each set of inputs in the block
+				for(int r=0; r<rows; r++) {
+					final int xRow = xOffset + r * nIn;
+					final int outRow = r * m;
+					for(int j=0; j<m; j++) {
+						double z = 0;
+						final int wRow = j * nIn;
+						for(int k=0; k<nIn; k++) {
+							z += w[wRow + k] * x[xRow + k];
+						}
+						out[outRow + j] = z + b[j];
+					}
+				}
+
+				// Compute the activations - the sigmoid function
+				final int size = rows * m;
+				for(int i=0; i<size; i++) {
+					out[i] = sigmoid.value(out[i]);
+				}
+			}
+
+			// Find the largest output for each set of inputs in the block
+			final double[] out = a[weights.length-1];
+			for(int r=0; r<rows; r++) {
+				indices[r0 + r] = getMaxIndex(out, r * numOutputs, numOutputs);
+			}
+		}
+	}
+
+	/**
+	 * Finds the index of the largest element in a range of the array.
+	 *
+	 * @param values
+	 * 	The array of values
+	 * @param offset
+	 * 	The index of the first element in the range
+	 * @param length
+	 * 	The number of elements in the range
+	 * @return
+	 * 	The index of the largest value, relative to the start of the range; in the case of ties, the first of them.
+	 */
+	private static int getMaxIndex(double[] values, int offset, int length) {
+		int maxIdx = 0;
+		double max = values[offset];
+		for(int i=1; i<length; i++) {
+			if(values[offset + i] > max) {
+				max = values[offset + i];
+				maxIdx = i;
+			}
+		}
+		return maxIdx;
+	}
+}
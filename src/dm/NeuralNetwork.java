@@ -16,6 +16,9 @@ package dm;
  *    On exit, the network is trained and ready to go.
  * 5) In classification problems, the network can easily be put in a wrapper class that
  *    converts the outputs to a particular class.
+ * 6) Once trained, the network can be converted to a {@link FlatNeuralNetwork} for fast
+ *    inference that's safe to share between threads; note that {@link #getNetworkOutput(double[])}
+ *    stores the outputs of each layer in the network, so is not thread safe.
  * 
  * @author nrowell
  * @version $Id$
@@ -37,7 +40,8 @@ public class NeuralNetwork {
 	
 	/**
 	 * For a given inputs to the network, this array stores the outputs of each layer of
-	 * neurons. This is useful when applying the back propagation algorithm, i.e. for a
+	 * neurons. This is useful when applying the back propagation algorithm, which obtains
+	 * the derivative of each neuron output from these rather than recomputing it, i.e. for a
 	 * given input to the N-layer network;
 	 * 
 	 *  - a[0]   -> contains the outputs of the neurons in the first layer
@@ -274,7 +278,9 @@ public class NeuralNetwork {
 	}
 	
 	/**
-	 * Single iteration implementation of the Back Propagation algorithm.
+	 * Single iteration implementation of the Back Propagation algorithm. This allocates working arrays
+	 * and copies the parameters out of and back into the neurons on each call; for repeated iterations
+	 * use a {@link NeuralNetworkTrainer}, which does neither.
 	 * 
 	 * @param trainingInputs
 	 * 	The training set inputs, stored in a two-dimension array. The leading dimension
@@ -309,13 +315,12 @@ public class NeuralNetwork {
 			// First, compute the error in the output layer
 			delta[l] = new double[neurons[l].length];
 			
-			// Retrieve the inputs to the final layer; handle single layer cases
-			double[] layerInputs = (l==0) ? trainingInputs[s] : a[l-1];
-			
 			for(int j=0; j<neurons[l].length; j++) {
 				
-				// Derivative of output of neuron j wrt the weighted input zj
-				double s_prime_zj = neurons[l][j].computeDerivative(layerInputs);
+				// Derivative of output of neuron j wrt the weighted input zj. For the sigmoid this is
+				// s(zj) * (1 - s(zj)), so it's obtained from the output computed in the forward pass
+				// rather than by recomputing the weighted input and output from the layer inputs.
+				double s_prime_zj = a[l][j] * (1.0 - a[l][j]);
 				
 				// Derivative of the cost function wrt the output of neuron j in the final layer
 				double dC = 2 * (a[l][j] - desiredOutputs[s][j]);
@@ -328,9 +333,6 @@ public class NeuralNetwork {
 			for(l=numLayers-2; l>=0; l--) {
 				
 				delta[l] = new double[neurons[l].length];
-						
-				// Retrieve the inputs to this layer of neurons; handle the first layer
-				layerInputs = (l==0) ? trainingInputs[s] : a[l-1];
 				
 				// Retrieve the error vector for the l+1 layer
 				double[] d = delta[l+1];
@@ -338,8 +340,8 @@ public class NeuralNetwork {
 				// Loop over the neurons in layer l
 				for(int j=0; j<neurons[l].length; j++) {
 
-					// Derivative of output of neuron j wrt the weighted input zj
-					double s_prime_zj = neurons[l][j].computeDerivative(layerInputs);
+					// Derivative of output of neuron j wrt the weighted input zj, from the forward pass output
+					double s_prime_zj = a[l][j] * (1.0 - a[l][j]);
 					
 					// Compute the matrix multiplication of the weights and errors for layer l+1
 					double wd = 0;
@@ -360,7 +362,7 @@ public class NeuralNetwork {
 			for(l=0; l<numLayers; l++) {
 				
 				// Retrieve the inputs to this layer of neurons; handle the first layer
-				layerInputs = (l==0) ? trainingInputs[s] : a[l-1];
+				double[] layerInputs = (l==0) ? trainingInputs[s] : a[l-1];
 				
 				for(int j=0; j<neurons[l].length; j++) {
 					
@@ -457,33 +459,10 @@ public class NeuralNetwork {
 	 * improve convergence for each trial.
 	 */
 	public void trainNetwork(double[][] inputs, double[][] outputs, int nTrials, int nIter) {
-
-		// Variable to store the network parameters that give the best fit
-		double[] bestParams = null;
-		
-		// Lowest cost function value
-		double minCost = Double.MAX_VALUE;
-		
-		for(int t=0; t<nTrials; t++) {
-		
-			// Reset the network parameters to random starting values
-			this.reset();
-			
-			// Train the network using back propagation
-			for(int i=0; i<nIter; i++) {
-				this.backPropagation(inputs, outputs);
-			}
-			
-			double finalError = this.getTotalNetworkError(inputs, outputs);
-			
-			if(finalError < minCost) {
-				minCost = finalError;
-				bestParams = this.getNetworkParameters();
-			}
-		}
 		
-		// Set the network parameters to the best found in all the trials
-		this.setNetworkParameters(bestParams);
+		// Train using the flat parameter arrays of a NeuralNetworkTrainer, which updates the
+		// parameters in place and sets the network parameters to the best found in all the trials.
+		new NeuralNetworkTrainer(this).trainNetwork(inputs, outputs, nTrials, nIter);
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,347 @@
+package dm;
+
+import java.util.Arrays;
+
+/**
+ * Training engine for a {@link NeuralNetwork}. The parameters of all the neurons are held in a single flat array, in
+ * the order used by {@link NeuralNetwork#getNetworkParameters()}, and the gradients of the cost function, the neuron
+ * outputs and the errors of each layer are held in arrays allocated once on construction. Each iteration of the back
+ * propagation then updates the parameters in place and allocates nothing, so training on many random starting points
+ * generates no garbage.
+ *
+ * The arithmetic is identical to {@link NeuralNetwork#backPropagation(double[][], double[][])} and
+ * {@link NeuralNetwork#getTotalNetworkError(double[][], double[][])}, so the results are the same. The
+ * {@link NeuralNetwork} is only updated by {@link #updateNetwork()} and at the end of
+ * {@link #trainNetwork(double[][], double[][], int, int)}.
+ *
+ * Instances are not thread safe.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class NeuralNetworkTrainer {
+
+	/**
+	 * The {@link NeuralNetwork} being trained.
+	 */
+	private final NeuralNetwork network;
+
+	/**
+	 * The number of inputs to each layer of neurons: element [l] is the number of inputs to layer l, and the final
+	 * element is the number of outputs from the network.
+	 */
+	private final int[] layerSizes;
+
+	/**
+	 * The index in {@link #params} of the first parameter of each layer of neurons. Within each layer, the parameters
+	 * of neuron j start at j * (number of inputs + 1), and comprise the weights followed by the bias.
+	 */
+	private final int[] layerOffsets;
+
+	/**
+	 * The parameters of all the neurons in the network.
+	 */
+	private final double[] params;
+
+	/**
+	 * The parameters of all the neurons for the lowest cost function found by
+	 * {@link #trainNetwork(double[][], double[][], int, int)}.
+	 */
+	private final double[] bestParams;
+
+	/**
+	 * The partial derivatives of the cost function with respect to each parameter, summed over the training examples.
+	 */
+	private final double[] dC_by_dp;
+
+	/**
+	 * The outputs of each layer of neurons for the current training example, as for {@link NeuralNetwork#a}.
+	 */
+	private final double[][] a;
+
+	/**
+	 * The 'error' vector for each layer of neurons for the current training example, i.e. the gradient of the cost
+	 * function with respect to the weighted input of each neuron in the layer.
+	 */
+	private final double[][] delta;
+
+	/**
+	 * Main constructor for the {@link NeuralNetworkTrainer}. The training starts from the current parameters of the
+	 * {@link NeuralNetwork}.
+	 *
+	 * @param network
+	 * 	The {@link NeuralNetwork} to train.
+	 */
+	public NeuralNetworkTrainer(NeuralNetwork network) {
+
+		this.network = network;
+
+		int numLayers = network.numLayers;
+		layerSizes = new int[numLayers + 1];
+		layerSizes[0] = network.numInputs;
+		layerOffsets = new int[numLayers];
+		a = new double[numLayers][];
+		delta = new double[numLayers][];
+
+		for(int l=0; l<numLayers; l++) {
+			int numNeurons = network.neurons[l].length;
+			layerSizes[l + 1] = numNeurons;
+			if(l > 0) {
+				layerOffsets[l] = layerOffsets[l - 1] + layerSizes[l] * (layerSizes[l - 1] + 1);
+			}
+			a[l] = new double[numNeurons];
+			delta[l] = new double[numNeurons];
+		}
+
+		params = network.getNetworkParameters();
+		bestParams = new double[params.length];
+		dC_by_dp = new double[params.length];
+	}
+
+	/**
+	 * Resets the parameters to random starting values, in the same way as {@link NeuralNetwork#reset()}.
+	 */
+	public void reset() {
+		for(int p=0; p<params.length; p++) {
+			params[p] = 2.0 * Math.random() - 1.0;
+		}
+	}
+
+	/**
+	 * Sets the parameters of the {@link NeuralNetwork} to the current parameters of the trainer.
+	 */
+	public void updateNetwork() {
+		network.setNetworkParameters(params);
+	}
+
+	/**
+	 * Computes the outputs of each layer of neurons for the given inputs, storing them in {@link #a}.
+	 *
+	 * @param inputs
+	 * 	The inputs to the network.
+	 */
+	private void computeOutputs(double[] inputs) {
+
+		for(int l=0; l<a.length; l++) {
+
+			// Get the inputs to this layer - either the original inputs (for layer one)
+			// or the outputs from the previous layer.
+			final double[] x = (l==0) ? inputs : a[l-1];
+			final int n = layerSizes[l];
+			final double[] out = a[l];
+
+			int p = layerOffsets[l];
+			for(int j=0; j<out.length; j++) {
+				// Dot product of inputs and neuron weights, then apply the neuron bias
+				double z = 0;
+				for(int k=0; k<n; k++) {
+					z += params[p++] * x[k];
+				}
+				z += params[p++];
+
+				// Compute the activation - the sigmoid function
+				out[j] = 1.0 / (1.0 + Math.exp(-z));
+			}
+		}
+	}
+
+	/**
+	 * Single iteration implementation of the Back Propagation algorithm; see
+	 * {@link NeuralNetwork#backPropagation(double[][], double[][])}.
+	 *
+	 * @param trainingInputs
+	 * 	The training set inputs, stored in a two-dimension array. The leading dimension
+	 * loops over each object, the trailing dimension loops over the inputs for each object.
+	 *
+	 * @param desiredOutputs
+	 * 	The desired outputs for each object in the training set, stored in a two-dimension
+	 * array. The leading dimension loops over each object, the trailing dimension loops
+	 * over the desired output for each object.
+	 */
+	public void backPropagation(double[][] trainingInputs, double[][] desiredOutputs) {
+
+		final int numLayers = a.length;
+
+		Arrays.fill(dC_by_dp, 0.0);
+
+		// Accumulate the deltas for each parameter in the network across all the training examples
+		for(int s=0; s<trainingInputs.length; s++) {
+
+			// Get the network outputs for this training example
+			computeOutputs(trainingInputs[s]);
+
+			// First, compute the error in the output layer
+			int l = numLayers-1;
+			for(int j=0; j<a[l].length; j++) {
+
+				// Derivative of output of neuron j wrt the weighted input zj, from its output
+				double s_prime_zj = a[l][j] * (1.0 - a[l][j]);
+
+				// Derivative of the cost function wrt the output of neuron j in the final layer
+				double dC = 2 * (a[l][j] - desiredOutputs[s][j]);
+
+				// Component of output error in final layer
+				delta[l][j] = dC * s_prime_zj;
+			}
+
+			// Now backpropagate the error through the remaining network layers
+			for(l=numLayers-2; l>=0; l--) {
+
+				// Retrieve the error vector and the parameters of the neurons in the l+1 layer
+				final double[] d = delta[l+1];
+				final int nextOffset = layerOffsets[l+1];
+				final int nextParamsPerNeuron = layerSizes[l+1] + 1;
+
+				// Loop over the neurons in layer l
+				for(int j=0; j<a[l].length; j++) {
+
+					// Derivative of output of neuron j wrt the weighted input zj, from its output
+					double s_prime_zj = a[l][j] * (1.0 - a[l][j]);
+
+					// Compute the matrix multiplication of the weights and errors for layer l+1
+					double wd = 0;
+					for(int i=0; i<d.length; i++) {
+						wd += params[nextOffset + i * nextParamsPerNeuron + j] * d[i];
+					}
+
+					// Component of output error in layer l
+					delta[l][j] = wd * s_prime_zj;
+				}
+			}
+
+			// Delta now contains all the information to compute the gradient of the cost function
+			// with respect to any parameter in the network.
+			int paramIdx = 0;
+
+			for(l=0; l<numLayers; l++) {
+
+				// Retrieve the inputs to this layer of neurons; handle the first layer
+				final double[] layerInputs = (l==0) ? trainingInputs[s] : a[l-1];
+				final int n = layerSizes[l];
+
+				for(int j=0; j<a[l].length; j++) {
+
+					// Compute partial derivatives for the weights of this neuron
+					for(int k=0; k<n; k++) {
+						dC_by_dp[paramIdx++] += delta[l][j] * layerInputs[k];
+					}
+
+					// Compute partial derivatives for the bias of this neuron
+					dC_by_dp[paramIdx++] += delta[l][j];
+				}
+			}
+		}
+
+		// Now apply parameter updates
+		for(int p=0; p<params.length; p++) {
+			params[p] += -dC_by_dp[p] / trainingInputs.length;
+		}
+	}
+
+	/**
+	 * Computes the cost function value for the training examples with the current parameters; see
+	 * {@link NeuralNetwork#getTotalNetworkError(double[][], double[][])}.
+	 *
+	 * @param inputs
+	 * 	The training set inputs, stored in a two-dimension array. The leading dimension
+	 * loops over each object, the trailing dimension loops over the inputs for each object.
+	 * @param outputs
+	 * 	The desired outputs for each object in the training set, stored in a two-dimension
+	 * array. The leading dimension loops over each object, the trailing dimension loops
+	 * over the desired output for each object.
+	 *
+	 * @return
+	 * 	The cost function.
+	 */
+	public double getTotalNetworkError(double[][] inputs, double[][] outputs) {
+
+		// Some consistency checks
+		if(inputs.length != outputs.length) {
+			throw new IllegalArgumentException("Number of training inputs ("+inputs.length+") "
+					+ "doesn't match the number of outputs ("+outputs.length+")!");
+		}
+		final int numInputs = layerSizes[0];
+		final int numOutputs = layerSizes[layerSizes.length-1];
+		for(int i=0; i<inputs.length; i++) {
+			if(inputs[i].length != numInputs) {
+				throw new IllegalArgumentException("Training input "+i+": expected "+numInputs
+						+ " inputs, found "+inputs[i].length+"!");
+			}
+			if(outputs[i].length != numOutputs) {
+				throw new IllegalArgumentException("Training output "+i+": expected "+numOutputs
+						+ " outputs, found "+outputs[i].length+"!");
+			}
+		}
+
+		double e = 0.0;
+
+		// Sum the squared error for each training example
+		final double[] o = a[a.length-1];
+		for(int s=0; s<inputs.length; s++) {
+
+			// Get the network outputs for this training example
+			computeOutputs(inputs[s]);
+
+			// Sum the error in quadrature
+			for(int i=0; i<numOutputs; i++) {
+				e += (o[i] - outputs[s][i])*(o[i] - outputs[s][i]);
+			}
+		}
+
+		// Average
+		e /= (2*inputs.length);
+
+		return e;
+	}
+
+	/**
+	 * Trains the network using the given training inputs and desired outputs, in the same way as
+	 * {@link NeuralNetwork#trainNetwork(double[][], double[][], int, int)}. On exit the parameters of the
+	 * {@link NeuralNetwork} are set to the best found in all the trials (if any trial gave a finite cost).
+	 *
+	 * @param inputs
+	 * 	The training set inputs, stored in a two-dimension array. The leading dimension
+	 * loops over each object, the trailing dimension loops over the inputs for each object.
+	 * @param outputs
+	 * 	The desired outputs for each object in the training set, stored in a two-dimension
+	 * array. The leading dimension loops over each object, the trailing dimension loops
+	 * over the desired output for each object.
+	 * @param nTrials
+	 * 	Number of times to train the network from a new random starting point; use a larger
+	 * value to have a better chance of finding the global minimum.
+	 * @param nIter
+	 * 	Number of iterations to make from each random starting point; use a larger value to
+	 * improve convergence for each trial.
+	 */
+	public void trainNetwork(double[][] inputs, double[][] outputs, int nTrials, int nIter) {
+
+		// Lowest cost function value
+		double minCost = Double.MAX_VALUE;
+		boolean found = false;
+
+		for(int t=0; t<nTrials; t++) {
+
+			// Reset the network parameters to random starting values
+			reset();
+
+			// Train the network using back propagation
+			for(int i=0; i<nIter; i++) {
+				backPropagation(inputs, outputs);
+			}
+
+			double finalError = getTotalNetworkError(inputs, outputs);
+
+			if(finalError < minCost) {
+				minCost = finalError;
+				found = true;
+				System.arraycopy(params, 0, bestParams, 0, params.length);
+			}
+		}
+
+		// Set the network parameters to the best found in all the trials
+		if(found) {
+			System.arraycopy(bestParams, 0, params, 0, params.length);
+			updateNetwork();
+		}
+	}
+}
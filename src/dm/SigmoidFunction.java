@@ -0,0 +1,89 @@
+package dm;
+
+/**
+ * The ways of evaluating the sigmoid (logistic) function s(z) = 1 / (1 + exp(-z)) used as the activation of the
+ * neurons in a {@link FlatNeuralNetwork}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public enum SigmoidFunction {
+
+	/**
+	 * Evaluates the sigmoid exactly (to within the accuracy of {@link Math#exp(double)}); this is identical to
+	 * {@link SigmoidNeuron#computeOutput(double)}.
+	 */
+	EXACT {
+		@Override
+		public double value(double z) {
+			return 1.0 / (1.0 + Math.exp(-z));
+		}
+	},
+
+	/**
+	 * Evaluates the sigmoid by linear interpolation in a table of values tabulated at intervals of
+	 * 1/{@link SigmoidFunction#TABLE_SCALE} over [-{@link SigmoidFunction#TABLE_RANGE}:{@link SigmoidFunction#TABLE_RANGE}],
+	 * and 0 or 1 outside this range. The absolute error is at most {@link SigmoidFunction#TABLE_MAX_ERROR}: the
+	 * interpolation error is bounded by h^2/8 times the maximum of |s''(z)| (which is 1/(6 sqrt(3)) = 0.0962), i.e.
+	 * 2.94e-6 for h = 1/64, and the error outside the table is s(-16) = 1.13e-7. The result is a monotonic function of
+	 * z, and a NaN input gives a NaN output.
+	 */
+	TABLE {
+		@Override
+		public double value(double z) {
+			if(!(z > -TABLE_RANGE)) {
+				// Below the table, or NaN
+				return z != z ? z : 0.0;
+			}
+			if(z >= TABLE_RANGE) {
+				return 1.0;
+			}
+			final double t = (z + TABLE_RANGE) * TABLE_SCALE;
+			final int i = (int) t;
+			final double f = t - i;
+			return Table.VALUES[i] + f * (Table.VALUES[i + 1] - Table.VALUES[i]);
+		}
+	};
+
+	/**
+	 * The range of weighted input [-TABLE_RANGE:TABLE_RANGE] covered by the table used by {@link #TABLE}.
+	 */
+	public static final double TABLE_RANGE = 16.0;
+
+	/**
+	 * The number of table entries per unit of weighted input used by {@link #TABLE}.
+	 */
+	public static final double TABLE_SCALE = 64.0;
+
+	/**
+	 * The maximum absolute error in the sigmoid computed by {@link #TABLE}.
+	 */
+	public static final double TABLE_MAX_ERROR = 3.0e-6;
+
+	/**
+	 * Computes the value of the sigmoid function.
+	 *
+	 * @param z
+	 * 	The weighted input.
+	 * @return
+	 * 	The value of the sigmoid function at z.
+	 */
+	public abstract double value(double z);
+
+	/**
+	 * Holder for the table of values used by {@link SigmoidFunction#TABLE}, which is only created when first used.
+	 */
+	private static final class Table {
+
+		/**
+		 * The sigmoid function tabulated at the weighted inputs -TABLE_RANGE + i / TABLE_SCALE.
+		 */
+		static final double[] VALUES = new double[(int) (2 * TABLE_RANGE * TABLE_SCALE) + 1];
+
+		static {
+			for(int i=0; i<VALUES.length; i++) {
+				VALUES[i] = EXACT.value(-TABLE_RANGE + i / TABLE_SCALE);
+			}
+		}
+	}
+}
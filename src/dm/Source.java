@@ -1,5 +1,7 @@
 package dm;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -9,6 +11,12 @@ import java.util.List;
 /**
  * Class used to represent a single Source detected in a window.
  *
+ * A Source can be created in a compact form (see
+ * {@link #Source(int, int, int, int, float[], int[])}), in which the samples designated to the source are held as
+ * indices into the (AC-packed) samples array of the window rather than as a list of {@link Sample} objects. The
+ * {@link Sample} list is then only created if and when it's requested through {@link #getSamples()}, after which the
+ * Source behaves exactly like one created in the normal way.
+ *
  * @author nrowell
  * @version $Id: Source.java 471308 2015-12-14 12:09:36Z nrowell $
  */
@@ -18,6 +26,11 @@ public class Source implements Serializable {
 	 * The serial version UID.
 	 */
 	private static final long serialVersionUID = 1087540357779804293L;
+	
+	/**
+	 * Size of the binary encoding of a {@link Source} produced by {@link #toByteArray()} [bytes].
+	 */
+	public static final int ENCODED_BYTES = 57;
 
 	/**
      * The Type enum for Source classification.
@@ -74,11 +87,28 @@ public class Source implements Serializable {
         	return description;
         }
     };
+    
+    /**
+     * Cached copy of {@link Type#values()}, used to decode the {@link Type} from its ordinal.
+     */
+    private static final Type[] TYPES = Type.values();
 	
     /**
-     * The List of Samples designated to this source.
+     * The List of Samples designated to this source. For a compact Source this is null until it's created from
+     * {@link #windowSamples} and {@link #sampleIndices} on the first call to {@link #getSamples()}.
      */
-    private final List<Sample> samples;
+    private List<Sample> samples;
+
+    /**
+     * For a compact Source, the (AC-packed) samples of the window that the Source was detected in; otherwise null.
+     */
+    private transient float[] windowSamples;
+
+    /**
+     * For a compact Source, the indices in {@link #windowSamples} of the samples designated to this source; otherwise
+     * null.
+     */
+    private transient int[] sampleIndices;
 
     /**
      * The AL sample size [pixels]
@@ -172,14 +202,77 @@ public class Source implements Serializable {
     }
 
     /**
-     * Gets the internal List of Samples corresponding to this Source.
+     * Constructor for a compact Source, setting the window and sample sizes and the samples designated to the source.
+     * The samples are held by reference, as indices into the samples array of the window, and the array must not be
+     * modified while the Source is in use.
+     *
+     * @param alSampleSize
+     *            The AL sample size [pixels]
+     * @param acSampleSize
+     *            The AC sample size [pixels]
+     * @param alWinSize
+     *            The AL window size [samples]
+     * @param acWinSize
+     *            The AC window size [samples]
+     * @param windowSamples
+     *            The (AC-packed) samples of the window that the Source was detected in
+     * @param sampleIndices
+     *            The indices in the window samples array of the samples designated to the source. The array is not
+     *            copied.
+     */
+    public Source(int alSampleSize, int acSampleSize, int alWinSize, int acWinSize, float[] windowSamples,
+            int[] sampleIndices) {
+        samples = null;
+        type = Type.UNKNOWN;
+        eigs = null;
+        this.alSampleSize = alSampleSize;
+        this.acSampleSize = acSampleSize;
+        this.alWinSize = alWinSize;
+        this.acWinSize = acWinSize;
+        this.windowSamples = windowSamples;
+        this.sampleIndices = sampleIndices;
+    }
+
+    /**
+     * Gets the internal List of Samples corresponding to this Source. For a compact Source the List is created on the
+     * first call, in the order of the sample indices; it's then held by the Source and any changes made to it are
+     * retained, as for any other Source. Note that this is not thread safe.
      *
      * @return The internal List of Samples corresponding to this Source.
      */
     public List<Sample> getSamples() {
+        if (samples == null) {
+            final List<Sample> list = new LinkedList<>();
+            for (final int i : sampleIndices) {
+                list.add(new Sample(i / acWinSize, i % acWinSize, windowSamples[i]));
+            }
+            samples = list;
+            windowSamples = null;
+            sampleIndices = null;
+        }
         return samples;
     }
 
+    /**
+     * Get the number of Samples corresponding to this Source, without creating the List of Samples for a compact
+     * Source.
+     *
+     * @return The number of Samples corresponding to this Source.
+     */
+    public int getSampleCount() {
+        return samples == null ? sampleIndices.length : samples.size();
+    }
+
+    /**
+     * Determines whether the samples of this Source are still held in the compact form, i.e. the List of Samples has
+     * not yet been created.
+     *
+     * @return True if the samples of this Source are held in the compact form.
+     */
+    public boolean isCompact() {
+        return samples == null;
+    }
+
     /**
      * Get the AL sample size [pixels]
      *
@@ -407,11 +500,11 @@ public class Source implements Serializable {
         	 return false;
          }
          // Compare individual samples
-         if(this.samples.size() != source.samples.size()) {
+         if(this.getSampleCount() != source.getSampleCount()) {
         	 return false;
          }
-         for(Sample sample : this.samples) {
-        	 if(!source.samples.contains(sample)) {
+         for(Sample sample : this.getSamples()) {
+        	 if(!source.getSamples().contains(sample)) {
         		 // A sample is missing
         		 return false;
         	 }
@@ -444,7 +537,21 @@ public class Source implements Serializable {
     public byte[] toByteArray() {
     	
     	// Create a ByteBuffer of the right capacity
-    	ByteBuffer b = ByteBuffer.allocate(57);
+    	ByteBuffer b = ByteBuffer.allocate(ENCODED_BYTES);
+    	
+    	toByteBuffer(b);
+    	
+    	return b.array();
+    }
+    
+    /**
+     * Encodes this {@link Source} into the given {@link ByteBuffer}, starting at the current position
+     * of the buffer. On exit the position of the buffer is advanced by {@link #ENCODED_BYTES}.
+     * 
+     * @param b
+     * 	The {@link ByteBuffer} to write to.
+     */
+    public void toByteBuffer(ByteBuffer b) {
     	
     	// TODO: add other fields as necessary
     	b.putDouble(flux);                  // 8 bytes
@@ -455,8 +562,64 @@ public class Source implements Serializable {
     	b.putDouble(orientation);           // 8 bytes
     	b.put((byte)type.ordinal());        // 1 byte
     	b.putDouble(obmtRev);			    // 8 bytes
-    	
-    	return b.array();
     }
     
-}
\ No newline at end of file
+    /**
+     * Decodes a {@link Source} from an array of bytes, as written by {@link #toByteArray()}. Note that
+     * only the encoded fields are restored: the {@link Sample}s and the window and sample sizes are not
+     * part of the encoding.
+     * 
+     * @param array
+     * 	The array of bytes.
+     * @param p
+     * 	Single-element int array storing the index of the element to start reading from in the byte array.
+     * This is advanced to the end of the current {@link Source} so that on exit it stores the index to start
+     * reading the next {@link Source} from.
+     * @return
+     * 	A {@link Source} decoded from the byte array.
+     */
+    public static Source fromByteArray(byte[] array, int[] p) {
+    	Source source = fromByteBuffer(ByteBuffer.wrap(array), p[0]);
+    	p[0] += ENCODED_BYTES;
+    	return source;
+    }
+    
+    /**
+     * Decodes a {@link Source} directly from a {@link ByteBuffer}, using absolute reads so that the position
+     * of the buffer is not modified. Note that only the encoded fields are restored: the {@link Sample}s and
+     * the window and sample sizes are not part of the encoding.
+     * 
+     * @param buffer
+     * 	The {@link ByteBuffer} containing the encoded {@link Source}.
+     * @param offset
+     * 	The index of the first byte of the encoded {@link Source} in the buffer.
+     * @return
+     * 	A {@link Source} decoded from the buffer.
+     */
+    public static Source fromByteBuffer(ByteBuffer buffer, int offset) {
+    	Source source = new Source();
+    	source.flux = buffer.getDouble(offset);
+    	source.peakFlux = buffer.getDouble(offset + 8);
+    	source.fluxRatio = buffer.getDouble(offset + 16);
+    	source.eigs = new double[]{buffer.getDouble(offset + 24), buffer.getDouble(offset + 32)};
+    	source.orientation = buffer.getDouble(offset + 40);
+    	source.type = TYPES[buffer.get(offset + 48)];
+    	source.obmtRev = buffer.getDouble(offset + 49);
+    	return source;
+    }
+    
+    /**
+     * Creates the List of Samples of a compact Source before it's serialized, so that the samples array of the
+     * window is not written along with it.
+     *
+     * @param out
+     *            The {@link ObjectOutputStream} to write to.
+     * @throws IOException
+     *             If there's an exception writing the Source.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getSamples();
+        out.defaultWriteObject();
+    }
+    
+}
@@ -18,6 +18,12 @@ public class Window implements Serializable {
 	 * The serial version UID.
 	 */
 	private static final long serialVersionUID = -7909026931832439667L;
+	
+	/**
+	 * Size of the fixed-length header that precedes the samples in the binary encoding of a {@link Window}
+	 * produced by {@link #toByteArray(Window)} [bytes].
+	 */
+	public static final int HEADER_BYTES = 46;
 
 	/**
 	 * The field-of-view number (0 or 1)
@@ -150,8 +156,26 @@ public class Window implements Serializable {
     public static byte[] toByteArray(Window win) {
     	
     	// Create a ByteBuffer of the right capacity.
-    	ByteBuffer b = ByteBuffer.allocate(46 + 4*win.samples.length);
-    	    	
+    	ByteBuffer b = ByteBuffer.allocate(getEncodedLength(win));
+    	
+    	toByteBuffer(win, b);
+    	
+    	return b.array();
+    }
+    
+    /**
+     * Encodes the {@link Window} into the given {@link ByteBuffer}, starting at the current position of
+     * the buffer. On exit the position of the buffer is advanced to the end of the encoded {@link Window}.
+     * Note that the {@link Window#sources} field is not encoded.
+     * 
+     * @param win
+     * 	The {@link Window} to encode.
+     * @param b
+     * 	The {@link ByteBuffer} to write to; must have at least {@link #getEncodedLength(Window)} bytes
+     * remaining.
+     */
+    public static void toByteBuffer(Window win, ByteBuffer b) {
+    	
     	// Write the field-of-view number; 1 byte
     	b.put(win.fov);
 
@@ -205,14 +229,28 @@ public class Window implements Serializable {
 //    	for(Type type : Type.values()) {
 //    		b.put(sourceCounts.get(type)[0]);
 //    	}    	
-    	
-    	return b.array();
+    }
+    
+    /**
+     * Computes the length of the binary encoding of the {@link Window}.
+     * 
+     * @param win
+     * 	The {@link Window}.
+     * @return
+     * 	The total length of the encoded {@link Window}, including the header [bytes].
+     */
+    public static int getEncodedLength(Window win) {
+    	return HEADER_BYTES + 4 * win.samples.length;
     }
     
     /**
      * Decodes a {@link Window} from an array of bytes. Note that the {@link Window#sources}
      * field is not decoded.
      * 
+     * The array is wrapped in a {@link ByteBuffer} and decoded by {@link #fromByteBuffer(ByteBuffer, int)},
+     * so that the header fields are read directly from the array and the samples are bulk-decoded into
+     * the destination array without allocating temporary arrays for each field.
+     * 
      * @param array
      * 	The array of bytes.
      * @param p
@@ -224,112 +262,66 @@ public class Window implements Serializable {
      */
     public static Window fromByteArray(byte[] array, int[] p) {
     	
-    	byte fov = array[p[0] + 0];
-    	byte row = array[p[0] + 1];
-    	byte strip = array[p[0] + 2];
-    	short acWinCoord = getShort(array, p[0] + 3);
-    	byte gateNum = array[p[0] + 5];
-    	long trId = getLong(array, p[0] + 6);
-    	double obmtRev = getDouble(array, p[0] + 14);
-    	int alSamples = getInt(array, p[0] + 22);
-    	int acSamples = getInt(array, p[0] + 26);
-    	int alSampleSize = getInt(array, p[0] + 30);
-    	int acSampleSize = getInt(array, p[0] + 34);
-    	double intTime = getDouble(array, p[0] + 38);
-    	float[] samples = new float[alSamples * acSamples];
-    	for(int i=0; i<samples.length; i++) {
-    		samples[i] = getFloat(array, p[0] + 46 + (4*i));
-    	}
+    	Window window = fromByteBuffer(ByteBuffer.wrap(array), p[0]);
     	
     	// Move on pointer
-    	p[0] += 46 + 4 * samples.length;
+    	p[0] += HEADER_BYTES + 4 * window.samples.length;
     	
-    	return new Window(fov, row, strip, acWinCoord, gateNum, trId, obmtRev,
-    			alSamples, acSamples, alSampleSize, acSampleSize, intTime, samples);
-    }
-    
-    /**
-     * Construct a double from 8 bytes stored at the given contiguous position in the array.
-     * @param array
-     * @param start
-     * 	Starting element (inclusive)
-     * @return
-     * 	A double
-     */
-    private static double getDouble(byte[] array, int start) {
-    	if(array.length - start < 8) {
-    		throw new RuntimeException("Cannot retrieve 8 bytes from array of length " + array.length + " with starting point " + start);
-    	}
-    	byte[] subArray = new byte[8];
-    	System.arraycopy(array, start, subArray, 0, 8);
-    	return ByteBuffer.wrap(subArray).getDouble();
-    }
-
-    /**
-     * Construct a float from 4 bytes stored at the given contiguous position in the array.
-     * @param array
-     * @param start
-     * 	Starting element (inclusive)
-     * @return
-     * 	A float
-     */
-    private static float getFloat(byte[] array, int start) {
-    	if(array.length - start < 4) {
-    		throw new RuntimeException("Cannot retrieve 4 bytes from array of length " + array.length + " with starting point " + start);
-    	}
-    	byte[] subArray = new byte[4];
-    	System.arraycopy(array, start, subArray, 0, 4);
-    	return ByteBuffer.wrap(subArray).getFloat();
+    	return window;
     }
     
     /**
-     * Construct an int from 4 bytes stored at the given contiguous position in the array.
-     * @param array
-     * @param start
-     * 	Starting element (inclusive)
+     * Decodes a {@link Window} directly from a {@link ByteBuffer}, using absolute reads so that the position
+     * of the buffer is not modified. This is intended for use with memory-mapped files, where the records
+     * can be decoded in place without first copying the file contents to a byte array. Note that the
+     * {@link Window#sources} field is not decoded.
+     * 
+     * @param buffer
+     * 	The {@link ByteBuffer} containing the encoded {@link Window}.
+     * @param offset
+     * 	The index of the first byte of the encoded {@link Window} in the buffer.
      * @return
-     * 	An int
+     * 	A {@link Window} decoded from the buffer.
      */
-    private static int getInt(byte[] array, int start) {
-    	if(array.length - start < 4) {
-    		throw new RuntimeException("Cannot retrieve 4 bytes from array of length " + array.length + " with starting point " + start);
-    	}
-    	byte[] subArray = new byte[4];
-    	System.arraycopy(array, start, subArray, 0, 4);
-    	return ByteBuffer.wrap(subArray).getInt();
+    public static Window fromByteBuffer(ByteBuffer buffer, int offset) {
+    	
+    	byte fov = buffer.get(offset + 0);
+    	byte row = buffer.get(offset + 1);
+    	byte strip = buffer.get(offset + 2);
+    	short acWinCoord = buffer.getShort(offset + 3);
+    	byte gateNum = buffer.get(offset + 5);
+    	long trId = buffer.getLong(offset + 6);
+    	double obmtRev = buffer.getDouble(offset + 14);
+    	int alSamples = buffer.getInt(offset + 22);
+    	int acSamples = buffer.getInt(offset + 26);
+    	int alSampleSize = buffer.getInt(offset + 30);
+    	int acSampleSize = buffer.getInt(offset + 34);
+    	double intTime = buffer.getDouble(offset + 38);
+    	
+    	// Bulk-decode the samples straight into the destination array through a FloatBuffer view
+    	float[] samples = new float[alSamples * acSamples];
+    	ByteBuffer sampleBytes = buffer.duplicate();
+    	sampleBytes.position(offset + HEADER_BYTES);
+    	sampleBytes.asFloatBuffer().get(samples);
+    	
+    	return new Window(fov, row, strip, acWinCoord, gateNum, trId, obmtRev,
+    			alSamples, acSamples, alSampleSize, acSampleSize, intTime, samples);
     }
     
     /**
-     * Construct a long from 8 bytes stored at the given contiguous position in the array.
-     * @param array
-     * @param start
-     * 	Starting element (inclusive)
-     * @return
-     * 	A long
-     */
-    private static long getLong(byte[] array, int start) {
-    	if(array.length - start < 8) {
-    		throw new RuntimeException("Cannot retrieve 8 bytes from array of length " + array.length + " with starting point " + start);
-    	}
-    	byte[] subArray = new byte[8];
-    	System.arraycopy(array, start, subArray, 0, 8);
-    	return ByteBuffer.wrap(subArray).getLong();
-    }
-
-    /**
-     * Construct a short from 2 bytes stored at the given contiguous position in the array.
-     * @param array
-     * @param start
-     * 	Starting element (inclusive)
+     * Computes the length of the encoded {@link Window} starting at the given position in the
+     * {@link ByteBuffer}, from the number of AL and AC samples recorded in the header.
+     * 
+     * @param buffer
+     * 	The {@link ByteBuffer} containing the encoded {@link Window}.
+     * @param offset
+     * 	The index of the first byte of the encoded {@link Window} in the buffer.
      * @return
-     * 	A short
+     * 	The total length of the encoded {@link Window}, including the header [bytes].
      */
-    private static short getShort(byte[] array, int start) {
-    	if(array.length - start < 2) {
-    		throw new RuntimeException("Cannot retrieve 2 bytes from array of length " + array.length + " with starting point " + start);
-    	}
-    	byte[] subArray = new byte[2];
-    	System.arraycopy(array, start, subArray, 0, 2);
-    	return ByteBuffer.wrap(subArray).getShort();
+    public static int getEncodedLength(ByteBuffer buffer, int offset) {
+    	int alSamples = buffer.getInt(offset + 22);
+    	int acSamples = buffer.getInt(offset + 26);
+    	return HEADER_BYTES + 4 * alSamples * acSamples;
     }
 }
\ No newline at end of file
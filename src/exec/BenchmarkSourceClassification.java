@@ -0,0 +1,131 @@
+package exec;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import algoimpl.SourceClassifierNN;
+import dm.SigmoidFunction;
+import dm.Source;
+import dm.Source.Type;
+import util.FileUtil;
+
+/**
+ * This class provides a short application for measuring the throughput of the {@link SourceClassifierNN} with each
+ * {@link SigmoidFunction}, and for checking the error of the approximate {@link SigmoidFunction}s and the agreement
+ * of the resulting classifications with those made using the {@link SigmoidFunction#EXACT} function. The application
+ * fails with an {@link IllegalStateException} if the error of the {@link SigmoidFunction#TABLE} function exceeds
+ * {@link SigmoidFunction#TABLE_MAX_ERROR}, or if any of the classifications made using it differ from those made
+ * using the {@link SigmoidFunction#EXACT} function.
+ */
+public class BenchmarkSourceClassification {
+
+	/**
+	 * The directory containing the files of {@link Source}s to classify.
+	 */
+	static File sourceDirectory = new File("data/Source/TrainingSet");
+
+	/**
+	 * Number of times to classify the {@link Source}s in each pass, for timing.
+	 */
+	static int nRepeats = 2000;
+
+	/**
+	 * Number of passes to make for each {@link SigmoidFunction}; the first few allow the JIT to warm up.
+	 */
+	static int nPasses = 5;
+
+	/**
+	 * Main application entry point.
+	 * @param args
+	 * 	The command line arguments (ignored)
+	 * @throws IllegalStateException
+	 * 	If the {@link SigmoidFunction#TABLE} function is less accurate than documented or changes any of the
+	 * classifications.
+	 */
+	public static void main(String[] args) {
+
+		// Check the error of each sigmoid function over a fine grid of weighted inputs, extending beyond the table
+		SigmoidFunction exact = SigmoidFunction.EXACT;
+		for(SigmoidFunction sigmoid : SigmoidFunction.values()) {
+			double maxError = 0.0;
+			for(int i=-2000000; i<=2000000; i++) {
+				double z = i * 1e-5;
+				maxError = Math.max(maxError, Math.abs(sigmoid.value(z) - exact.value(z)));
+			}
+			System.out.println(String.format("%s: maximum absolute error %.3g over [-20:20]", sigmoid, maxError));
+			if(sigmoid == SigmoidFunction.TABLE && maxError > SigmoidFunction.TABLE_MAX_ERROR) {
+				throw new IllegalStateException(String.format("%s: maximum absolute error %.3g exceeds %.3g",
+						sigmoid, maxError, SigmoidFunction.TABLE_MAX_ERROR));
+			}
+		}
+		System.out.println(String.format("%s: documented maximum absolute error %.3g", SigmoidFunction.TABLE,
+				SigmoidFunction.TABLE_MAX_ERROR));
+
+		// Load the Sources
+		File[] files = FileUtil.listFiles(sourceDirectory, FileUtil.sourceFileFilter);
+		List<Source> sources = new ArrayList<>();
+		for(File file : files) {
+			@SuppressWarnings("unchecked")
+			List<Source> fileSources = (List<Source>) FileUtil.deserialize(file);
+			sources.addAll(fileSources);
+		}
+		System.out.println("Loaded "+sources.size()+" Sources from "+files.length+" Files");
+		if(sources.isEmpty()) {
+			throw new IllegalStateException("No Sources found in " + sourceDirectory);
+		}
+
+		// The classifications made using the exact sigmoid, one Source at a time
+		SourceClassifierNN reference = new SourceClassifierNN(SigmoidFunction.EXACT);
+		Type[] referenceTypes = new Type[sources.size()];
+		for(int s=0; s<sources.size(); s++) {
+			referenceTypes[s] = reference.classifySource(sources.get(s));
+		}
+
+		for(SigmoidFunction sigmoid : SigmoidFunction.values()) {
+
+			SourceClassifierNN classifier = new SourceClassifierNN(sigmoid);
+
+			// Agreement with the reference classifications, for single and batch classification
+			int nSingleAgree = 0;
+			for(int s=0; s<sources.size(); s++) {
+				if(classifier.classifySource(sources.get(s)) == referenceTypes[s]) {
+					nSingleAgree++;
+				}
+			}
+			Type[] types = classifier.classifySources(sources);
+			int nBatchAgree = 0;
+			for(int s=0; s<sources.size(); s++) {
+				if(types[s] == referenceTypes[s]) {
+					nBatchAgree++;
+				}
+			}
+			System.out.println(String.format("%s: agreement with %s classification %.1f%% (single), %.1f%% (batch)",
+					sigmoid, SigmoidFunction.EXACT, 100.0 * nSingleAgree / sources.size(),
+					100.0 * nBatchAgree / sources.size()));
+			if(nSingleAgree < sources.size() || nBatchAgree < sources.size()) {
+				throw new IllegalStateException(String.format("%s: classifications differ from %s for %d (single), "
+						+ "%d (batch) of %d Sources", sigmoid, SigmoidFunction.EXACT, sources.size() - nSingleAgree,
+						sources.size() - nBatchAgree, sources.size()));
+			}
+
+			// Throughput
+			for(int pass=0; pass<nPasses; pass++) {
+				long start = System.nanoTime();
+				for(int r=0; r<nRepeats; r++) {
+					for(Source source : sources) {
+						classifier.classifySource(source);
+					}
+				}
+				long mid = System.nanoTime();
+				for(int r=0; r<nRepeats; r++) {
+					classifier.classifySources(sources);
+				}
+				long stop = System.nanoTime();
+				double n = (double) nRepeats * sources.size();
+				System.out.println(String.format("%s: %.1f ns per Source (single), %.1f ns per Source (batch)",
+						sigmoid, (mid - start) / n, (stop - mid) / n));
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import algo.DetectedSources;
+import algo.DetectionWorkspace;
+import algo.SourceDetector;
+import algo.WindowBatch;
+import algoimpl.SourceDetectorUnionFind;
+import algoimpl.SourceDetectorWatershedSegmentation;
+import dm.Sample;
+import dm.Source;
+import dm.Window;
+import util.WindowReader;
+
+/**
+ * This class provides a short application for measuring the throughput and heap allocation of the
+ * {@link SourceDetector} implementations on a file of {@link Window}s, and for checking their agreement with
+ * the reference (object-based watershed) implementation.
+ */
+public class BenchmarkSourceDetection {
+
+	/**
+	 * The file of {@link Window}s to process.
+	 */
+	static File windowFile = new File("data/Window/TrainingSet/Window_136.ser");
+
+	/**
+	 * Number of passes over the {@link Window}s to make for each detector; the first few allow the JIT to warm up.
+	 */
+	static int nPasses = 20;
+
+	/**
+	 * Main application entry point.
+	 * @param args
+	 * 	The command line arguments (ignored)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		List<Window> windows = new ArrayList<>();
+		try (WindowReader reader = WindowReader.open(windowFile)) {
+			while(reader.hasNext()) {
+				windows.add(reader.next());
+			}
+		}
+
+		SourceDetector reference = new SourceDetectorWatershedSegmentation(false);
+
+		String[] names = {"Watershed (objects)", "Watershed (primitive arrays)", "Union-find"};
+		SourceDetector[] detectors = {reference, new SourceDetectorWatershedSegmentation(true), new SourceDetectorUnionFind()};
+
+		for(int d=0; d<detectors.length; d++) {
+
+			for(int pass=0; pass<nPasses; pass++) {
+
+				long bytes0 = DetectionWorkspace.getThreadAllocatedBytes();
+				long start = System.nanoTime();
+				int nSources = 0;
+				for(Window window : windows) {
+					nSources += detectors[d].getSources(window).size();
+				}
+				long stop = System.nanoTime();
+				long bytes = DetectionWorkspace.getThreadAllocatedBytes() - bytes0;
+
+				System.out.println(String.format("%s: %d Windows, %d Sources at %.1f Windows/s; %d bytes allocated per Window",
+						names[d], windows.size(), nSources, windows.size() / ((stop - start) / 1e9),
+						bytes0 < 0 ? -1 : bytes / windows.size()));
+			}
+
+			// Measure the allocation of each call individually, excluding the benchmark loop itself
+			DetectionWorkspace workspace = DetectionWorkspace.forCurrentThread();
+			workspace.resetAllocation();
+			DetectionWorkspace.setAllocationTracking(true);
+			int nSources = 0;
+			for(Window window : windows) {
+				nSources += detectors[d].getSources(window).size();
+			}
+			DetectionWorkspace.setAllocationTracking(false);
+			System.out.println(String.format("%s: %.1f bytes allocated per Window by getSources, for %.2f Sources per Window",
+					names[d], workspace.getAllocatedBytesPerWindow(), nSources / (double)windows.size()));
+
+			System.out.println(String.format("%s: %.1f%% of Windows had no samples above the source detection threshold",
+					names[d], 100.0 * detectors[d].getFastPathFraction()));
+
+			// Check agreement with the reference detector
+			int nDiffer = 0;
+			int nCountDiffer = 0;
+			for(Window window : windows) {
+				List<Source> a = reference.getSources(window);
+				List<Source> b = detectors[d].getSources(window);
+				if(!isSame(a, b)) {
+					nDiffer++;
+				}
+				if(a.size() != b.size()) {
+					nCountDiffer++;
+				}
+			}
+			System.out.println(String.format("%s: Sources differ from %s in %d of %d Windows; number of Sources differs in %d",
+					names[d], names[0], nDiffer, windows.size(), nCountDiffer));
+		}
+
+		// Batch detection of all the Windows in one call
+		SourceDetector batchDetector = new SourceDetectorWatershedSegmentation(true);
+		WindowBatch batch = new WindowBatch(windows);
+		for(int pass=0; pass<nPasses; pass++) {
+			long start = System.nanoTime();
+			DetectedSources detected = batchDetector.getSources(batch);
+			long stop = System.nanoTime();
+			System.out.println(String.format("Batch of %d Windows in %d geometries: %d Sources at %.1f Windows/s",
+					batch.size(), batch.getGroupCount(), detected.size(), windows.size() / ((stop - start) / 1e9)));
+		}
+
+		// Check agreement with the reference detector
+		DetectedSources detected = batchDetector.getSources(batch);
+		int nDiffer = 0;
+		for(int w=0; w<windows.size(); w++) {
+			if(!isSame(reference.getSources(windows.get(w)), detected.getSources(w))) {
+				nDiffer++;
+			}
+		}
+		System.out.println(String.format("Batch: Sources differ from %s in %d of %d Windows",
+				names[0], nDiffer, windows.size()));
+	}
+
+	/**
+	 * Determines whether two lists of {@link Source}s are identical, in terms of their {@link Sample}s and
+	 * all the computed statistics.
+	 * @param a
+	 * 	The first {@link List} of {@link Source}s.
+	 * @param b
+	 * 	The second {@link List} of {@link Source}s.
+	 * @return
+	 * 	True if the lists are identical.
+	 */
+	static boolean isSame(List<Source> a, List<Source> b) {
+		if(a.size() != b.size()) {
+			return false;
+		}
+		for(int s=0; s<a.size(); s++) {
+			Source sa = a.get(s);
+			Source sb = b.get(s);
+			if(!sa.getSamples().equals(sb.getSamples())
+					|| Double.compare(sa.getFlux(), sb.getFlux()) != 0
+					|| Double.compare(sa.getPeakFlux(), sb.getPeakFlux()) != 0
+					|| Double.compare(sa.getFluxRatio(), sb.getFluxRatio()) != 0
+					|| !Arrays.equals(sa.getEigenvalues(), sb.getEigenvalues())
+					|| Double.compare(sa.getOrientation(), sb.getOrientation()) != 0
+					|| Double.compare(sa.getObmtRev(), sb.getObmtRev()) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
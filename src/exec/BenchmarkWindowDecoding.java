@@ -0,0 +1,99 @@
+package exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+
+import dm.Window;
+import util.WindowArchive;
+
+/**
+ * This class provides a short application for measuring the throughput of the {@link Window} decoders,
+ * in MB/s of encoded data, for a binary file of {@link Window}s such as that written by
+ * {@link WriteWindowsToBinaryFile}.
+ */
+public class BenchmarkWindowDecoding {
+
+	/**
+	 * The binary file of {@link Window}s to decode.
+	 */
+	static File windowFile = new File("data/Window/Training_Set.dat");
+
+	/**
+	 * Number of passes over the file to make for each decoder; the first few allow the JIT to warm up.
+	 */
+	static int nPasses = 20;
+
+	/**
+	 * Main application entry point.
+	 * @param args
+	 * 	The command line arguments (ignored)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		// Decode from a byte array loaded into memory
+		byte[] fileContent = Files.readAllBytes(windowFile.toPath());
+
+		for(int pass=0; pass<nPasses; pass++) {
+
+			long start = System.nanoTime();
+			int nWindows = 0;
+			int[] p = {0};
+			while(p[0] < fileContent.length) {
+				Window.fromByteArray(fileContent, p);
+				nWindows++;
+			}
+			long stop = System.nanoTime();
+
+			System.out.println(String.format("Window.fromByteArray: decoded %d Windows at %.2f MB/s",
+					nWindows, getRate(fileContent.length, stop - start)));
+		}
+
+		// Decode in place from the memory-mapped file
+		WindowArchive archive = new WindowArchive(windowFile);
+
+		for(int pass=0; pass<nPasses; pass++) {
+
+			long start = System.nanoTime();
+			int nWindows = 0;
+			for(int i=0; i<archive.size(); i++) {
+				archive.get(i);
+				nWindows++;
+			}
+			long stop = System.nanoTime();
+
+			System.out.println(String.format("WindowArchive: decoded %d Windows at %.2f MB/s",
+					nWindows, getRate(windowFile.length(), stop - start)));
+		}
+		
+		// Decode contiguous ranges of records from the memory-mapped file in parallel
+		ForkJoinPool pool = new ForkJoinPool();
+		
+		for(int pass=0; pass<nPasses; pass++) {
+
+			long start = System.nanoTime();
+			Window[] windows = archive.decodeAll(pool);
+			long stop = System.nanoTime();
+
+			System.out.println(String.format("WindowArchive.decodeAll (%d threads): decoded %d Windows at %.2f MB/s",
+					pool.getParallelism(), windows.length, getRate(windowFile.length(), stop - start)));
+		}
+		
+		pool.shutdown();
+	}
+
+	/**
+	 * Computes the decoding rate.
+	 * @param bytes
+	 * 	The number of bytes decoded.
+	 * @param nanos
+	 * 	The elapsed time [ns]
+	 * @return
+	 * 	The decoding rate [MB/s]
+	 */
+	private static double getRate(long bytes, long nanos) {
+		return (bytes / (1024.0 * 1024.0)) / (nanos / 1e9);
+	}
+}
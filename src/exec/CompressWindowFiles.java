@@ -0,0 +1,108 @@
+package exec;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import dm.Window;
+import util.CompressedWindowArchive;
+import util.CompressedWindowArchive.Codec;
+import util.CompressedWindowWriter;
+import util.FileUtil;
+import util.WindowArchive;
+
+/**
+ * This class provides a short application for converting each binary file of {@link Window}s in a directory
+ * to the block-compressed format read by the {@link CompressedWindowArchive}. The compressed files are written
+ * to a separate directory, so that the same {@link Window}s aren't found twice by applications that process
+ * every file under the input directory. The compression ratio and the
+ * time taken to read the compressed file back with one thread and with all available cores are reported,
+ * and the contents are checked against the original.
+ */
+public class CompressWindowFiles {
+
+	/**
+	 * The directory containing all the binary files of {@link Window}s to compress.
+	 */
+	static File windowDirectory = new File("data/Window");
+
+	/**
+	 * The directory to write the compressed files to. The layout of the subdirectories of the
+	 * {@link #windowDirectory} is reproduced here.
+	 */
+	static File outputDirectory = new File("data/CompressedWindow");
+
+	/**
+	 * The {@link Codec} used to compress the blocks.
+	 */
+	static Codec codec = Codec.DEFLATE;
+
+	/**
+	 * The uncompressed size of each block [bytes].
+	 */
+	static int blockBytes = CompressedWindowWriter.DEFAULT_BLOCK_BYTES;
+
+	/**
+	 * Main application entry point.
+	 * @param args
+	 * 	The command line arguments (ignored)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		int nThreads = Runtime.getRuntime().availableProcessors();
+
+		// Array of all binary files containing {@link Window}s
+		List<File> files = FileUtil.listFilesRecursive(windowDirectory, new FileFilter() {
+			public boolean accept(File file) {
+				return FileUtil.windowFileFilter.accept(file) && file.getName().endsWith(".dat");
+			}
+		});
+
+		for(File file : files) {
+
+			String name = file.getName();
+			File outputDir = new File(outputDirectory, windowDirectory.toURI().relativize(file.getParentFile().toURI()).getPath());
+			if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+				throw new IOException("Couldn't create directory " + outputDir);
+			}
+			File output = new File(outputDir, name.substring(0, name.length() - 4) + CompressedWindowArchive.EXTENSION);
+
+			WindowArchive original = new WindowArchive(file);
+
+			long t0 = System.nanoTime();
+			try (CompressedWindowWriter out = new CompressedWindowWriter(output, codec, blockBytes)) {
+				for(Window window : original) {
+					out.write(window);
+				}
+			}
+			long writeTime = System.nanoTime() - t0;
+
+			CompressedWindowArchive archive = new CompressedWindowArchive(output);
+
+			t0 = System.nanoTime();
+			List<Window> serial = archive.readAll(1);
+			long serialTime = System.nanoTime() - t0;
+
+			t0 = System.nanoTime();
+			List<Window> parallel = archive.readAll(nThreads);
+			long parallelTime = System.nanoTime() - t0;
+
+			boolean match = serial.size() == original.size() && parallel.size() == original.size();
+			for(int i=0; match && i<original.size(); i++) {
+				byte[] expected = Window.toByteArray(original.get(i));
+				match = Arrays.equals(expected, Window.toByteArray(serial.get(i)))
+						&& Arrays.equals(expected, Window.toByteArray(parallel.get(i)))
+						&& Arrays.equals(expected, Window.toByteArray(archive.get(i)));
+			}
+
+			System.out.println(String.format("%s: %d Windows in %d blocks; %d -> %d bytes (%.1f%%); "
+					+ "write %.1f ms; read %.1f ms (1 thread), %.1f ms (%d threads); contents %s", name,
+					archive.size(), archive.getBlockCount(), file.length(), output.length(),
+					100.0 * output.length() / file.length(), writeTime / 1e6, serialTime / 1e6,
+					parallelTime / 1e6, nThreads, match ? "match" : "DO NOT MATCH"));
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import dm.Source;
+import dm.Window;
+import util.CompactCodec;
+import util.FileUtil;
+
+/**
+ * This class provides a short application for converting all the files of serialized Java {@link Window}s and
+ * {@link Source}s found under a directory to the {@link CompactCodec} format. Each converted file is read back
+ * and compared field by field against the Java-deserialized original before the original is (optionally)
+ * deleted; the size and load time of the two formats is reported for each file.
+ */
+public class ConvertSerializedFiles {
+
+	/**
+	 * The directory to search recursively for serialized files.
+	 */
+	static File dataDirectory = new File("data");
+
+	/**
+	 * Whether to delete the serialized files once the converted copy has been checked. The originals include
+	 * the checked-in training sets, so this must be enabled deliberately. If they are kept, the file listing
+	 * in {@link FileUtil} selects the converted copy in preference, so the contents are not loaded twice and
+	 * files that have already been converted are skipped.
+	 */
+	static boolean deleteOriginals = false;
+
+	/**
+	 * Main application entry point.
+	 * @param args
+	 * 	The command line arguments (ignored)
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws IOException {
+
+		List<File> files = FileUtil.listFilesRecursive(dataDirectory, FileUtil.windowFileFilter);
+		files.addAll(FileUtil.listFilesRecursive(dataDirectory, FileUtil.sourceFileFilter));
+
+		for(File file : files) {
+
+			if(!file.getName().endsWith(".ser") || CompactCodec.isCompact(file)) {
+				continue;
+			}
+
+			String name = file.getName();
+			File output = new File(file.getParentFile(), name.substring(0, name.length() - 4) + CompactCodec.EXTENSION);
+
+			long t0 = System.nanoTime();
+			List<?> original = (List<?>) FileUtil.deserialize(file);
+			long serTime = System.nanoTime() - t0;
+
+			if(original == null) {
+				System.out.println("Couldn't read file " + name + "; skipping");
+				continue;
+			}
+
+			boolean isWindows = !original.isEmpty() && original.get(0) instanceof Window;
+			if(isWindows) {
+				FileUtil.writeWindows(output, (List<Window>) original);
+			}
+			else {
+				FileUtil.writeSources(output, (List<Source>) original);
+			}
+
+			t0 = System.nanoTime();
+			List<?> converted = (List<?>) FileUtil.deserialize(output);
+			long gscTime = System.nanoTime() - t0;
+
+			if(converted == null || !matches(original, converted)) {
+				System.out.println("Converted file " + output.getName() + " doesn't match the original; keeping " + name);
+				if(!output.delete()) {
+					System.out.println("Couldn't delete " + output.getName());
+				}
+				continue;
+			}
+
+			System.out.println(String.format("%s: %d %s; %d -> %d bytes; load time %.1f -> %.1f ms", name,
+					original.size(), isWindows ? "Windows" : "Sources", file.length(), output.length(),
+					serTime / 1e6, gscTime / 1e6));
+
+			if(deleteOriginals && !file.delete()) {
+				System.out.println("Couldn't delete " + name);
+			}
+		}
+	}
+
+	/**
+	 * Compares the {@link Window}s or {@link Source}s read back from the converted file against the
+	 * Java-deserialized originals, so that any field lost or truncated by the conversion is detected.
+	 *
+	 * @param original
+	 * 	The {@link List} of {@link Window}s or {@link Source}s from the serialized file.
+	 * @param converted
+	 * 	The {@link List} of {@link Window}s or {@link Source}s from the converted file.
+	 * @return
+	 * 	True if every object in the converted list equals the corresponding original.
+	 */
+	private static boolean matches(List<?> original, List<?> converted) {
+		if(original.size() != converted.size()) {
+			return false;
+		}
+		for(int i = 0; i < original.size(); i++) {
+			Object a = original.get(i);
+			Object b = converted.get(i);
+			if(a instanceof Window) {
+				if(!(b instanceof Window) || !matches((Window) a, (Window) b)) {
+					return false;
+				}
+			}
+			else if(!(b instanceof Source) || !matches((Source) a, (Source) b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares two {@link Source}s. {@link Source#equals(Object)} doesn't compare the observation time, so this
+	 * is checked separately.
+	 *
+	 * @param a
+	 * 	The first {@link Source}.
+	 * @param b
+	 * 	The second {@link Source}.
+	 * @return
+	 * 	True if the two {@link Source}s are identical.
+	 */
+	private static boolean matches(Source a, Source b) {
+		return a.equals(b) && Double.compare(a.getObmtRev(), b.getObmtRev()) == 0;
+	}
+
+	/**
+	 * Compares every header field, the samples and the {@link Source}s of two {@link Window}s.
+	 *
+	 * @param a
+	 * 	The first {@link Window}.
+	 * @param b
+	 * 	The second {@link Window}.
+	 * @return
+	 * 	True if the two {@link Window}s are identical.
+	 */
+	private static boolean matches(Window a, Window b) {
+		return a.fov == b.fov && a.row == b.row && a.strip == b.strip && a.acWinCoord == b.acWinCoord &&
+				a.gate == b.gate && a.transitId == b.transitId &&
+				Double.compare(a.obmtRev, b.obmtRev) == 0 &&
+				a.alSamples == b.alSamples && a.acSamples == b.acSamples &&
+				a.alSampleSize == b.alSampleSize && a.acSampleSize == b.acSampleSize &&
+				Double.compare(a.intTime, b.intTime) == 0 &&
+				Arrays.equals(a.samples, b.samples) && matches(a.sources, b.sources);
+	}
+}
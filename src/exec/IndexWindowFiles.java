@@ -0,0 +1,46 @@
+package exec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import dm.Window;
+import util.FileUtil;
+import util.WindowIndex;
+
+/**
+ * This class provides a short application for writing a sidecar {@link WindowIndex} for each binary file of
+ * {@link Window}s in a directory, so that the GUI and batch tools can seek straight to a given transit or
+ * device.
+ */
+public class IndexWindowFiles {
+
+	/**
+	 * The directory containing all the binary files of {@link Window}s to index.
+	 */
+	static File windowDirectory = new File("data/Window");
+
+	/**
+	 * Main application entry point.
+	 * @param args
+	 * 	The command line arguments (ignored)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		// Array of all files containing {@link Window}s
+		List<File> files = FileUtil.listFilesRecursive(windowDirectory, FileUtil.windowFileFilter);
+
+		for(File file : files) {
+
+			if(!file.getName().endsWith(".dat")) {
+				continue;
+			}
+
+			WindowIndex index = WindowIndex.build(file);
+			index.write(file);
+
+			System.out.println("Indexed " + index.size() + " Windows in file " + file.getName());
+		}
+	}
+}
@@ -1,20 +1,25 @@
 package exec;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 
 import algo.SourceClassifier;
 import algo.SourceDetector;
 import algoimpl.SourceClassifierEmpirical;
+import algoimpl.SourceDetectorUnionFind;
 import algoimpl.SourceDetectorWatershedSegmentation;
 import dm.Source;
 import dm.Source.Type;
 import dm.Window;
 import util.FileUtil;
+import util.WindowReader;
 
 /**
  * This is a simple demonstration of loading a bunch of {@link Window}s from a particular directory
@@ -39,8 +44,14 @@ public class ProcessWindows {
 		// Array of all files containing {@link Window}s
 		List<File> windowFiles = FileUtil.listFilesRecursive(inputDir, FileUtil.windowFileFilter);
 		
+		// Number of {@link Window}s to pass to the source detection at a time
+		int batchSize = 4096;
+		
+		// Whether to detect sources by connected-component labelling rather than watershed segmentation
+		boolean useUnionFind = false;
+		
 		// We'll use a source detection algorithm to identify sources in each window
-		SourceDetector sourceDetector = new SourceDetectorWatershedSegmentation();
+		SourceDetector sourceDetector = useUnionFind ? new SourceDetectorUnionFind() : new SourceDetectorWatershedSegmentation();
 		
 		// Get an empirical source classifier to classify the sources
 //		SourceClassifier sourceClassifier = new SourceClassifierEmpirical();
@@ -48,51 +59,52 @@ public class ProcessWindows {
 		// Process each file in turn
 		for(File windowFile : windowFiles) {
 			
+			// This splits filename "Window_78333600000000000_78334200000000000_31841.ser"
+			// into ["Window", "78333600000000000", "78334200000000000", "31841.ser"]
+			String[] parts = windowFile.getName().split("_");
 			
-			// Load all the {@link Window}s from the file
-			List<Window> windows = (List<Window>) FileUtil.deserialize(windowFile);
+			// The number of Sources isn't known until the whole file has been processed, so we stream
+			// them to a temporary file and rename it once it's complete.
+			File partFile = new File(outputDir, "Source_"+parts[1]+"_"+parts[2]+".part");
 			
-			// Buffer all the {@link Source}s before writing to file
-			List<Source> sources = new LinkedList<>();
+			// Number of {@link Source}s written to the file
+			int nSources = 0;
 			
 			// Compute the number of each type of source we found in this file
 			int[] sourceCounts = new int[Type.values().length];
 			
-			// Process each {@link Window} in turn
-			for(Window window : windows) {
+			// Stream the {@link Window}s from the file, so that we never hold the whole file in memory
+			try (WindowReader windows = WindowReader.open(windowFile);
+				 OutputStream os = new BufferedOutputStream(new FileOutputStream(partFile))) {
 				
-				// Extract and optionally classify each {@link Source}
-				for(Source source : sourceDetector.getSources(window)) {
-					sources.add(source);
+				// Process the {@link Window}s in batches
+				List<Window> batch = new ArrayList<>(batchSize);
+				while(windows.hasNext()) {
+					
+					batch.clear();
+					while(windows.hasNext() && batch.size() < batchSize) {
+						batch.add(windows.next());
+					}
 					
-//					Type type = sourceClassifier.classifySource(source);
-//					source.setType(type);
-//					sourceCounts[type.ordinal()]++;
+					// Extract and optionally classify each {@link Source}
+					for(Source source : sourceDetector.getSources(batch).getSources()) {
+						
+						// Write the sources to the output file
+						os.write(source.toByteArray());
+						nSources++;
+						
+//						Type type = sourceClassifier.classifySource(source);
+//						source.setType(type);
+//						sourceCounts[type.ordinal()]++;
+					}
 				}
 			}
 			
-			// This splits filename "Window_78333600000000000_78334200000000000_31841.ser"
-			// into ["Window", "78333600000000000", "78334200000000000", "31841.ser"]
-			String[] parts = windowFile.getName().split("_");
-			
 			// Create output file to contain Sources
 			// Filename is "Source_78333600000000000_78334200000000000_<# sources>.dat"
-			String sourceFilename = "Source_"+parts[1]+"_"+parts[2]+"_"+sources.size()+".dat";
-			
-			FileOutputStream os = new FileOutputStream(new File(outputDir, sourceFilename));
-
-			// Used to write binary Source data
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			String sourceFilename = "Source_"+parts[1]+"_"+parts[2]+"_"+nSources+".dat";
 			
-			for(Source source : sources) {
-				// Write the sources to the byte array output stream
-				out.write(source.toByteArray());
-			}
-			
-			// Write the buffered sources to file
-			out.writeTo(os);
-			out.close();
-			os.close();
+			Files.move(partFile.toPath(), new File(outputDir, sourceFilename).toPath(), StandardCopyOption.REPLACE_EXISTING);
 			
 			System.out.println("\nFound the following Sources in file "+windowFile.getName()+":");
 			for(int i=0; i<Type.values().length; i++) {
@@ -100,6 +112,8 @@ public class ProcessWindows {
 			}
 			
 		}
-		
+
+		System.out.println(String.format("\n%.1f%% of %d Windows had no samples above the source detection threshold",
+				100.0 * sourceDetector.getFastPathFraction(), sourceDetector.getWindowCount()));
 	}
 }
\ No newline at end of file
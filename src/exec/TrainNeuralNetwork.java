@@ -24,7 +24,7 @@ public class TrainNeuralNetwork {
 		File sourceDirectory = new File("data/Source/TrainingSet");
 		
 		// Array of all files containing {@link Source}s
-		File[] files = sourceDirectory.listFiles(FileUtil.sourceFileFilter);
+		File[] files = FileUtil.listFiles(sourceDirectory, FileUtil.sourceFileFilter);
 		
 		// Load the training set
 		List<Source> sources = new LinkedList<>();
@@ -41,7 +41,7 @@ public class WriteSourcesToBinaryFile {
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		
 		// Array of all files containing {@link Source}s
-		File[] files = sourceDirectory.listFiles(FileUtil.sourceFileFilter);
+		File[] files = FileUtil.listFiles(sourceDirectory, FileUtil.sourceFileFilter);
 		
 		// Compute the number of each type of source we found in this file
 		int[] sourceCounts = new int[Type.values().length];
@@ -0,0 +1,59 @@
+package exec;
+
+import java.io.File;
+import java.io.IOException;
+
+import dm.Source;
+import dm.Source.Type;
+import util.ColumnarSourceCatalogue;
+import util.ColumnarSourceWriter;
+import util.SourceReader;
+
+/**
+ * This class provides a short application for converting a binary file of {@link Source}s, as written by
+ * {@link WriteSourcesToBinaryFile} or {@link ProcessWindows}, to the columnar format read by the
+ * {@link ColumnarSourceCatalogue}.
+ */
+public class WriteSourcesToColumnarFile {
+
+	/**
+	 * The binary file of {@link Source}s to convert.
+	 */
+	static File inputFile = new File("data/Source/Training_Set.dat");
+
+	/**
+	 * Output columnar file location.
+	 */
+	static File outputFile = new File("data/Source/Training_Set.col");
+
+	/**
+	 * Main application entry point.
+	 * @param args
+	 * 	The command line arguments (ignored)
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+
+		// The records are fixed length, so the number of {@link Source}s follows from the file size
+		int nSources = (int)(inputFile.length() / Source.ENCODED_BYTES);
+
+		// Compute the number of each type of source we found in this file
+		int[] sourceCounts = new int[Type.values().length];
+
+		try (SourceReader in = new SourceReader(inputFile);
+			 ColumnarSourceWriter out = new ColumnarSourceWriter(outputFile, nSources)) {
+
+			while(in.hasNext()) {
+				Source source = in.next();
+				out.write(source);
+				sourceCounts[source.getType().ordinal()]++;
+			}
+		}
+
+		System.out.println("\nWritten the following Sources to file:");
+		for(int i=0; i<Type.values().length; i++) {
+			System.out.println(Type.values()[i] + "\t" + sourceCounts[i]);
+		}
+
+	}
+}
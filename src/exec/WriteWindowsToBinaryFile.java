@@ -1,15 +1,14 @@
 package exec;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
 
 import dm.Source;
 import dm.Source.Type;
 import dm.Window;
 import util.FileUtil;
+import util.WindowReader;
+import util.WindowWriter;
 
 /**
  * This class provides a short application for converting a set of {@link Window}s from a
@@ -35,14 +34,11 @@ public class WriteWindowsToBinaryFile {
 	 */
 	public static void main(String[] args) throws IOException {
 		
-		// Open an output stream on the output file
-		FileOutputStream os = new FileOutputStream(outputFile);
-		
-		// Create a ByteArrayOutputStream for writing the binary data to the file
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		// Open a streaming writer on the output file
+		WindowWriter out = WindowWriter.open(outputFile);
 		
 		// Array of all files containing {@link Window}s
-		File[] files = windowDirectory.listFiles(FileUtil.windowFileFilter);
+		File[] files = FileUtil.listFiles(windowDirectory, FileUtil.windowFileFilter);
 
 		// Compute the number of each type of source we found in this file
 		int[] sourceCounts = new int[Type.values().length];
@@ -50,27 +46,25 @@ public class WriteWindowsToBinaryFile {
 		// Process each file in turn
 		for(File file : files) {
 			
-			// Load all the {@link Window}s from the file
-			List<Window> windows = (List<Window>) FileUtil.deserialize(file);
-			
-			// Convert each {@link Window} to binary format
-			for(Window window : windows) {
+			// Stream the {@link Window}s from the file
+			try (WindowReader windows = WindowReader.open(file)) {
 				
-				// Get the byte array representation for the {@link Window} and write to the byte output stream
-				out.write(Window.toByteArray(window));
-				
-				for(Source source : window.sources) {
-					sourceCounts[source.getType().ordinal()]++;
+				// Convert each {@link Window} to binary format
+				while(windows.hasNext()) {
+					
+					Window window = windows.next();
+					
+					// Write the binary representation of the {@link Window} to the output file
+					out.write(window);
+					
+					for(Source source : window.sources) {
+						sourceCounts[source.getType().ordinal()]++;
+					}
 				}
 			}
-			
-			// Write all {@link Window}s queued up in the byte array stream to the file
-			out.writeTo(os);
-			out.reset();
 		}
 		
 		out.close();
-		os.close();
 		
 		System.out.println("\nFound the following sources in the training set:");
 		for(int i=0; i<Type.values().length; i++) {
@@ -10,7 +10,6 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -34,10 +33,15 @@ import dm.Source;
 import dm.Source.Type;
 import dm.Window;
 import exec.GaiaSourceClassificationApplication.Mode;
+import util.CompactCodec;
+import util.CompressedWindowArchive;
 import util.FileUtil;
 import util.GaiaUtil;
 import util.GuiUtil;
 import util.LocalBkgUtils;
+import util.WindowArchive;
+import util.WindowIndex;
+import util.WindowReader;
 
 /**
  * This class provides the main GUI for the {@link exec.GaiaSourceClassificationApplication}.
@@ -92,11 +96,21 @@ public class GaiaSourceClassificationPanel extends JPanel {
      */
     Window currentWindow;
     
+    /**
+     * The loaded {@link Window}s
+     */
+    List<Window> windows;
+    
     /**
      * Iterator over the loaded {@link Window}s
      */
     ListIterator<Window> windowIter;
     
+    /**
+     * The {@link WindowIndex} for the current {@link File}, if one is available; otherwise null.
+     */
+    WindowIndex windowIndex;
+    
     /**
      * Index of the current {@link Window} in the original list
      */
@@ -365,11 +379,11 @@ public class GaiaSourceClassificationPanel extends JPanel {
 				if(!file.isFile()) {
 					return false;
 				}
-				return file.getName().startsWith("Window_");
+				return file.getName().startsWith("Window_") && !file.getName().endsWith(WindowIndex.EXTENSION);
 			}
 		};
 
-		File[] files = windowDir.listFiles(directoryFilter);
+		File[] files = FileUtil.listFiles(windowDir, directoryFilter);
 		
 		for(File windowFile : files) {
 			windowFiles.add(windowFile);
@@ -665,21 +679,32 @@ public class GaiaSourceClassificationPanel extends JPanel {
 	private void initialiseWindowIteration() {
 		
 		// We got a new File; now load all the {@link Window}s
-		List<Window> windows = new LinkedList<>();
-		
-		if(currentFile.getName().endsWith(".ser")) {
-			// File contains serialized Java objects
-			@SuppressWarnings("unchecked")
-			List<Window> wins = (List<Window>) FileUtil.deserialize(currentFile);
-			windows.addAll(wins);
+		windows = new LinkedList<>();
+		windowIndex = null;
+		
+		if(currentFile.getName().endsWith(".ser") || currentFile.getName().endsWith(CompactCodec.EXTENSION)) {
+			// File contains serialized Java objects or the compact encoding
+			try (WindowReader reader = WindowReader.open(currentFile)) {
+				while(reader.hasNext()) {
+					windows.add(reader.next());
+				}
+			} catch (IOException e) {
+				logger.severe("Exception reading file " + currentFile.getName());
+			}
 		}
 		else if(currentFile.getName().endsWith(".dat")) {
+			// Binary file: map it and decode the {@link Window}s on demand rather than reading it all to the heap
 			try {
-				byte[] fileContent = Files.readAllBytes(currentFile.toPath());
-				int[] p = {0};
-				while(p[0] < fileContent.length) {
-					windows.add(Window.fromByteArray(fileContent, p));
-				}
+				windows = new WindowArchive(currentFile);
+				windowIndex = WindowIndex.load(currentFile);
+			} catch (IOException e) {
+				logger.severe("Exception reading file " + currentFile.getName());
+			}
+		}
+		else if(currentFile.getName().endsWith(CompressedWindowArchive.EXTENSION)) {
+			// Block-compressed file: decompress each block on demand
+			try {
+				windows = new CompressedWindowArchive(currentFile);
 			} catch (IOException e) {
 				logger.severe("Exception reading file " + currentFile.getName());
 			}
@@ -731,6 +756,21 @@ public class GaiaSourceClassificationPanel extends JPanel {
 	}
 	
 
+	/**
+	 * Repositions the {@link #windowIter} and loads the {@link Window} at the given position in the
+	 * current {@link File} to the {@link #currentWindow} field.
+	 * 
+	 * @param record
+	 * 	The index of the {@link Window} to load.
+	 */
+	private void seekWindow(int record) {
+		nextWindowWasCalled[0] = false;
+		prevWindowWasCalled[0] = false;
+		windowIter = windows.listIterator(record);
+		windowIdx[0] = record;
+		iterateWindow(true);
+	}
+	
 	/**
 	 * Skips ahead or back to the next {@link Window} with a transit ID different from the
 	 * {@link #currentWindow}.
@@ -748,6 +788,17 @@ public class GaiaSourceClassificationPanel extends JPanel {
 			return false;
 		}
 		
+		if(windowIndex != null) {
+			// Seek straight to the adjacent transit using the index, rather than decoding each Window in turn
+			int record = windowIndex.getAdjacentTransitRecord(windowIdx[0] - 1, isForward);
+			if(record < 0) {
+				// No more objects in the given direction
+				return false;
+			}
+			seekWindow(record);
+			return true;
+		}
+		
 		Window newWindow = null;
 		
 		do {
@@ -12,7 +12,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.util.AbstractList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -37,10 +37,15 @@ import algo.SourceDetector;
 import dm.Source;
 import dm.Source.Type;
 import dm.Window;
+import util.CompactCodec;
+import util.CompressedWindowArchive;
 import util.FileUtil;
 import util.GaiaUtil;
 import util.GuiUtil;
 import util.LocalBkgUtils;
+import util.WindowArchive;
+import util.WindowIndex;
+import util.WindowReader;
 
 /**
  * This class provides the main GUI for the {@link exec.GaiaWindowClassificationApplication}.
@@ -95,11 +100,21 @@ public class GaiaWindowClassificationPanel extends JPanel {
      */
     Window currentWindow;
     
+    /**
+     * The loaded {@link Window}s
+     */
+    List<Window> windows;
+    
     /**
      * Iterator over the loaded {@link Window}s
      */
     ListIterator<Window> windowIter;
     
+    /**
+     * The {@link WindowIndex} for the current {@link File}, if one is available; otherwise null.
+     */
+    WindowIndex windowIndex;
+    
     /**
      * Index of the current {@link Window} in the original list
      */
@@ -385,7 +400,7 @@ public class GaiaWindowClassificationPanel extends JPanel {
             	}
             	
             	// First check if we haven't already got this window in the list
-            	if(classifiedWindows.contains(currentWindow)) {
+            	if(getClassifiedWindow(currentWindow) != null) {
             		JOptionPane.showMessageDialog(null, "Training set already contains this Window!",
             				"Training set conflict", JOptionPane.WARNING_MESSAGE);
             	}
@@ -444,9 +459,10 @@ public class GaiaWindowClassificationPanel extends JPanel {
 			counter[0] = 0;
 		}
 		
-		// Update counts
+		// Update counts, from the training set copy if the Window has already been classified
 		if(currentWindow!=null) {
-			for(Source source : currentWindow.sources) {
+			Window classified = getClassifiedWindow(currentWindow);
+			for(Source source : (classified != null ? classified : currentWindow).sources) {
 				sourceCountsMap.get(source.getType())[0]++;
 			}
 		}
@@ -471,11 +487,11 @@ public class GaiaWindowClassificationPanel extends JPanel {
 				if(!file.isFile()) {
 					return false;
 				}
-				return file.getName().startsWith("Window_");
+				return file.getName().startsWith("Window_") && !file.getName().endsWith(WindowIndex.EXTENSION);
 			}
 		};
 
-		File[] files = windowDir.listFiles(directoryFilter);
+		File[] files = FileUtil.listFiles(windowDir, directoryFilter);
 		
 		for(File windowFile : files) {
 			windowFiles.add(windowFile);
@@ -723,21 +739,32 @@ public class GaiaWindowClassificationPanel extends JPanel {
 	private void initialiseWindowIteration() {
 		
 		// We got a new File; now load all the {@link Window}s
-		List<Window> windows = new LinkedList<>();
-		
-		if(currentFile.getName().endsWith(".ser")) {
-			// File contains serialized Java objects
-			@SuppressWarnings("unchecked")
-			List<Window> wins = (List<Window>) FileUtil.deserialize(currentFile);
-			windows.addAll(wins);
+		windows = new LinkedList<>();
+		windowIndex = null;
+		
+		if(currentFile.getName().endsWith(".ser") || currentFile.getName().endsWith(CompactCodec.EXTENSION)) {
+			// File contains serialized Java objects or the compact encoding
+			try (WindowReader reader = WindowReader.open(currentFile)) {
+				while(reader.hasNext()) {
+					windows.add(reader.next());
+				}
+			} catch (IOException e) {
+				logger.severe("Exception reading file " + currentFile.getName());
+			}
 		}
 		else if(currentFile.getName().endsWith(".dat")) {
+			// Binary file: map it and decode the {@link Window}s on demand rather than reading it all to the heap
 			try {
-				byte[] fileContent = Files.readAllBytes(currentFile.toPath());
-				int[] p = {0};
-				while(p[0] < fileContent.length) {
-					windows.add(Window.fromByteArray(fileContent, p));
-				}
+				windows = retainDecoded(new WindowArchive(currentFile));
+				windowIndex = WindowIndex.load(currentFile);
+			} catch (IOException e) {
+				logger.severe("Exception reading file " + currentFile.getName());
+			}
+		}
+		else if(currentFile.getName().endsWith(CompressedWindowArchive.EXTENSION)) {
+			// Block-compressed file: decompress each block on demand
+			try {
+				windows = retainDecoded(new CompressedWindowArchive(currentFile));
 			} catch (IOException e) {
 				logger.severe("Exception reading file " + currentFile.getName());
 			}
@@ -758,6 +785,58 @@ public class GaiaWindowClassificationPanel extends JPanel {
 		iterateWindow(true);
 	}
 	
+	/**
+	 * Wraps a {@link List} that decodes a new {@link Window} on every access (such as a {@link WindowArchive})
+	 * so that each {@link Window} is decoded once and the same instance is returned thereafter. This keeps
+	 * the {@link Source}s added to a {@link Window} when it's classified attached to it as we navigate
+	 * back and forth through the file.
+	 * 
+	 * @param archive
+	 * 	The {@link List} of {@link Window}s to wrap.
+	 * @return
+	 * 	A {@link List} view of the archive that retains the {@link Window}s already decoded.
+	 */
+	private static List<Window> retainDecoded(final List<Window> archive) {
+		
+		final Map<Integer, Window> decoded = new HashMap<>();
+		
+		return new AbstractList<Window>() {
+			@Override
+			public Window get(int index) {
+				Window window = decoded.get(index);
+				if(window == null) {
+					window = archive.get(index);
+					decoded.put(index, window);
+				}
+				return window;
+			}
+			@Override
+			public int size() {
+				return archive.size();
+			}
+		};
+	}
+	
+	/**
+	 * Finds the {@link Window} in the training set that corresponds to the given {@link Window}. The
+	 * {@link Window}s are matched by transit ID, strip and observation time rather than by identity, since
+	 * the same {@link Window} is decoded to a new instance each time its {@link File} is loaded.
+	 * 
+	 * @param window
+	 * 	The {@link Window} to look for.
+	 * @return
+	 * 	The matching {@link Window} from {@link #classifiedWindows}, or null if it hasn't been classified.
+	 */
+	private Window getClassifiedWindow(Window window) {
+		for(Window classified : classifiedWindows) {
+			if(classified.transitId == window.transitId && classified.strip == window.strip &&
+					classified.obmtRev == window.obmtRev) {
+				return classified;
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Loads the next or previous {@link Window} from the ListIterator {@link #windowIter}
 	 * to the {@link #currentWindow} field.
@@ -788,6 +867,21 @@ public class GaiaWindowClassificationPanel extends JPanel {
 	}
 	
 
+	/**
+	 * Repositions the {@link #windowIter} and loads the {@link Window} at the given position in the
+	 * current {@link File} to the {@link #currentWindow} field.
+	 * 
+	 * @param record
+	 * 	The index of the {@link Window} to load.
+	 */
+	private void seekWindow(int record) {
+		nextWindowWasCalled[0] = false;
+		prevWindowWasCalled[0] = false;
+		windowIter = windows.listIterator(record);
+		windowIdx[0] = record;
+		iterateWindow(true);
+	}
+	
 	/**
 	 * Skips ahead or back to the next {@link Window} with a transit ID different from the
 	 * {@link #currentWindow}.
@@ -805,6 +899,17 @@ public class GaiaWindowClassificationPanel extends JPanel {
 			return false;
 		}
 		
+		if(windowIndex != null) {
+			// Seek straight to the adjacent transit using the index, rather than decoding each Window in turn
+			int record = windowIndex.getAdjacentTransitRecord(windowIdx[0] - 1, isForward);
+			if(record < 0) {
+				// No more objects in the given direction
+				return false;
+			}
+			seekWindow(record);
+			return true;
+		}
+		
 		Window newWindow = null;
 		
 		do {
@@ -15,6 +15,7 @@ import javax.swing.JPanel;
 
 import dm.Source;
 import dm.Source.Type;
+import util.CompactCodec;
 import util.FileUtil;
 import util.GuiUtil;
 
@@ -97,8 +98,8 @@ public class TrainingSetSourcePanel extends JPanel {
 	private void writeTrainingSetToFile() {
 		// Write the list contents to a file then clear it
 		int nSources = classifiedSources.size();
-		File output = new File(outputDir, "Source_"+nSources+".ser");
-		FileUtil.serialize(output, classifiedSources);
+		File output = new File(outputDir, "Source_"+nSources+CompactCodec.EXTENSION);
+		FileUtil.writeSources(output, classifiedSources);
 		classifiedSources.clear();
 		JOptionPane.showMessageDialog(this, "Written "+nSources+" classified Sources to "+output.getAbsolutePath(),
 				"Writing training set to file...", JOptionPane.INFORMATION_MESSAGE);
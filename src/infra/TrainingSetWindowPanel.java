@@ -16,6 +16,7 @@ import javax.swing.JPanel;
 import dm.Source;
 import dm.Source.Type;
 import dm.Window;
+import util.CompactCodec;
 import util.FileUtil;
 import util.GuiUtil;
 
@@ -98,8 +99,8 @@ public class TrainingSetWindowPanel extends JPanel {
 	private void writeTrainingSetToFile() {
 		// Write the list contents to a file then clear it
 		int nSources = classifiedWindows.size();
-		File output = new File(outputDir, "Window_"+nSources+".ser");
-		FileUtil.serialize(output, classifiedWindows);
+		File output = new File(outputDir, "Window_"+nSources+CompactCodec.EXTENSION);
+		FileUtil.writeWindows(output, classifiedWindows);
 		classifiedWindows.clear();
 		JOptionPane.showMessageDialog(this, "Written "+nSources+" classified Windows to "+output.getAbsolutePath(),
 				"Writing training set to file...", JOptionPane.INFORMATION_MESSAGE);
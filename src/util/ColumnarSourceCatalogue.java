@@ -0,0 +1,256 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import dm.Source;
+import dm.Source.Type;
+
+/**
+ * Reader for columnar catalogues of {@link Source}s, as written by {@link ColumnarSourceWriter}. In the columnar
+ * format each of the features of the {@link Source}s is stored as a separate contiguous block, so that scans that
+ * touch only one or two features need read only the corresponding parts of the file.
+ *
+ * File layout:
+ *
+ *  - Header: magic number (4 bytes), format version (4 bytes), number of {@link Source}s N (4 bytes)
+ *  - Then one block per {@link Column}, in the order the {@link Column}s are declared. Each block contains
+ *    N values of the width specified by the {@link Column}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class ColumnarSourceCatalogue implements Closeable {
+
+	/**
+	 * Magic number identifying a columnar {@link Source} catalogue ("GSCC").
+	 */
+	public static final int MAGIC = 0x47534343;
+
+	/**
+	 * The version of the format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Size of the file header [bytes].
+	 */
+	public static final int HEADER_BYTES = 12;
+
+	/**
+	 * Enumerates the columns in the catalogue, in the order that they are stored in the file.
+	 */
+	public static enum Column {
+		/**
+		 * The integrated flux, see {@link Source#getFlux()}.
+		 */
+		FLUX(8),
+		/**
+		 * The peak flux, see {@link Source#getPeakFlux()}.
+		 */
+		PEAK_FLUX(8),
+		/**
+		 * The peak-to-neighbour flux ratio, see {@link Source#getFluxRatio()}.
+		 */
+		FLUX_RATIO(8),
+		/**
+		 * The first eigenvalue, see {@link Source#getEigenvalues()}.
+		 */
+		EIG0(8),
+		/**
+		 * The second eigenvalue, see {@link Source#getEigenvalues()}.
+		 */
+		EIG1(8),
+		/**
+		 * The orientation, see {@link Source#getOrientation()}.
+		 */
+		ORIENTATION(8),
+		/**
+		 * The ordinal of the {@link Type}, see {@link Source#getType()}.
+		 */
+		TYPE(1),
+		/**
+		 * The observation time, see {@link Source#getObmtRev()}.
+		 */
+		OBMT_REV(8);
+
+		/**
+		 * The width of each value in the column [bytes].
+		 */
+		public final int width;
+
+		Column(int width) {
+			this.width = width;
+		}
+
+		/**
+		 * Computes the byte offset of the start of this column in a catalogue file.
+		 * @param n
+		 * 	The number of {@link Source}s in the catalogue.
+		 * @return
+		 * 	The byte offset of the start of this column.
+		 */
+		public long getOffset(int n) {
+			long offset = HEADER_BYTES;
+			for(Column column : Column.values()) {
+				if(column == this) {
+					break;
+				}
+				offset += (long)column.width * n;
+			}
+			return offset;
+		}
+	}
+
+	/**
+	 * The {@link RandomAccessFile} being read.
+	 */
+	private final RandomAccessFile raf;
+
+	/**
+	 * The {@link FileChannel} on the file being read.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The number of {@link Source}s in the catalogue.
+	 */
+	private final int size;
+
+	/**
+	 * Main constructor for the {@link ColumnarSourceCatalogue}. Reads and checks the file header.
+	 *
+	 * @param file
+	 * 	The columnar catalogue {@link File}.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or it is not a columnar catalogue.
+	 */
+	public ColumnarSourceCatalogue(File file) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		ByteBuffer header = read(0, HEADER_BYTES);
+		if(header.getInt() != MAGIC) {
+			close();
+			throw new IOException("File " + file.getName() + " is not a columnar Source catalogue");
+		}
+		int version = header.getInt();
+		if(version != VERSION) {
+			close();
+			throw new IOException("Unsupported columnar Source catalogue version " + version);
+		}
+		size = header.getInt();
+	}
+
+	/**
+	 * Get the number of {@link Source}s in the catalogue.
+	 * @return
+	 * 	The number of {@link Source}s in the catalogue.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Reads a contiguous range of bytes from the file.
+	 * @param position
+	 * 	The byte offset in the file to start reading from.
+	 * @param length
+	 * 	The number of bytes to read.
+	 * @return
+	 * 	A {@link ByteBuffer} containing the bytes, ready for reading.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or it ends before the range does.
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of columnar Source catalogue");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Reads one of the floating point columns of the catalogue. Only the bytes for the given column are read.
+	 *
+	 * @param column
+	 * 	The {@link Column} to read; any except {@link Column#TYPE}.
+	 * @return
+	 * 	The values of the column for each {@link Source}, in catalogue order.
+	 * @throws IOException
+	 * 	If there's an exception reading the file.
+	 */
+	public double[] readDoubleColumn(Column column) throws IOException {
+		if(column == Column.TYPE) {
+			throw new IllegalArgumentException("Column " + column + " is not a floating point column");
+		}
+		double[] values = new double[size];
+		read(column.getOffset(size), 8 * size).asDoubleBuffer().get(values);
+		return values;
+	}
+
+	/**
+	 * Reads the {@link Column#TYPE} column of the catalogue. Only the bytes for the column are read.
+	 *
+	 * @return
+	 * 	The ordinal of the {@link Type} of each {@link Source}, in catalogue order.
+	 * @throws IOException
+	 * 	If there's an exception reading the file.
+	 */
+	public byte[] readTypeColumn() throws IOException {
+		return read(Column.TYPE.getOffset(size), size).array();
+	}
+
+	/**
+	 * Reads all the columns and assembles the {@link Source}s. Note that only the stored fields of each
+	 * {@link Source} are restored.
+	 *
+	 * @return
+	 * 	A {@link List} of all the {@link Source}s in the catalogue, in catalogue order.
+	 * @throws IOException
+	 * 	If there's an exception reading the file.
+	 */
+	public List<Source> readSources() throws IOException {
+
+		double[] flux = readDoubleColumn(Column.FLUX);
+		double[] peakFlux = readDoubleColumn(Column.PEAK_FLUX);
+		double[] fluxRatio = readDoubleColumn(Column.FLUX_RATIO);
+		double[] eig0 = readDoubleColumn(Column.EIG0);
+		double[] eig1 = readDoubleColumn(Column.EIG1);
+		double[] orientation = readDoubleColumn(Column.ORIENTATION);
+		byte[] type = readTypeColumn();
+		double[] obmtRev = readDoubleColumn(Column.OBMT_REV);
+
+		Type[] types = Type.values();
+		List<Source> sources = new ArrayList<>(size);
+		for(int i=0; i<size; i++) {
+			Source source = new Source();
+			source.setFlux(flux[i]);
+			source.setPeakFlux(peakFlux[i]);
+			source.setFluxRatio(fluxRatio[i]);
+			source.setEigenvalues(new double[]{eig0[i], eig1[i]});
+			source.setOrientation(orientation[i]);
+			source.setType(types[type[i]]);
+			source.setObmtRev(obmtRev[i]);
+			sources.add(source);
+		}
+		return sources;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		raf.close();
+	}
+}
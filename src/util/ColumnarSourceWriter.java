@@ -0,0 +1,155 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import dm.Source;
+import util.ColumnarSourceCatalogue.Column;
+
+/**
+ * Writer for columnar catalogues of {@link Source}s; see {@link ColumnarSourceCatalogue} for the file layout.
+ * The number of {@link Source}s must be known when the file is opened, so that the position of each column
+ * is fixed. Each column is accumulated in its own small buffer that is written to the column's position in
+ * the file whenever it fills up, so the {@link Source}s can be streamed through the writer.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class ColumnarSourceWriter implements Closeable {
+
+	/**
+	 * The number of values buffered for each column before writing to the file.
+	 */
+	private static final int ROWS_PER_FLUSH = 8192;
+
+	/**
+	 * The {@link RandomAccessFile} being written.
+	 */
+	private final RandomAccessFile raf;
+
+	/**
+	 * The {@link FileChannel} on the file being written.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The number of {@link Source}s to be written.
+	 */
+	private final int size;
+
+	/**
+	 * The number of {@link Source}s written so far.
+	 */
+	private int count = 0;
+
+	/**
+	 * Buffers for each {@link Column}, indexed by ordinal.
+	 */
+	private final ByteBuffer[] buffers;
+
+	/**
+	 * The byte offset in the file at which the contents of each {@link Column} buffer will next be written.
+	 */
+	private final long[] positions;
+
+	/**
+	 * Main constructor for the {@link ColumnarSourceWriter}.
+	 *
+	 * @param file
+	 * 	The {@link File} to write.
+	 * @param size
+	 * 	The number of {@link Source}s that will be written.
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public ColumnarSourceWriter(File file, int size) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		this.size = size;
+		Column[] columns = Column.values();
+		buffers = new ByteBuffer[columns.length];
+		positions = new long[columns.length];
+		for(Column column : columns) {
+			buffers[column.ordinal()] = ByteBuffer.allocateDirect(ROWS_PER_FLUSH * column.width);
+			positions[column.ordinal()] = column.getOffset(size);
+		}
+	}
+
+	/**
+	 * Writes the {@link Source} to the catalogue.
+	 *
+	 * @param source
+	 * 	The {@link Source} to write.
+	 * @throws IOException
+	 * 	If there's an exception writing to the file, or if more {@link Source}s are written than were
+	 * specified when the writer was opened.
+	 */
+	public void write(Source source) throws IOException {
+		if(count == size) {
+			throw new IOException("Columnar Source catalogue is full (" + size + " Sources)");
+		}
+		if(!buffers[0].hasRemaining()) {
+			flush();
+		}
+		buffers[Column.FLUX.ordinal()].putDouble(source.getFlux());
+		buffers[Column.PEAK_FLUX.ordinal()].putDouble(source.getPeakFlux());
+		buffers[Column.FLUX_RATIO.ordinal()].putDouble(source.getFluxRatio());
+		buffers[Column.EIG0.ordinal()].putDouble(source.getEigenvalues()[0]);
+		buffers[Column.EIG1.ordinal()].putDouble(source.getEigenvalues()[1]);
+		buffers[Column.ORIENTATION.ordinal()].putDouble(source.getOrientation());
+		buffers[Column.TYPE.ordinal()].put((byte)source.getType().ordinal());
+		buffers[Column.OBMT_REV.ordinal()].putDouble(source.getObmtRev());
+		count++;
+	}
+
+	/**
+	 * Writes the contents of each {@link Column} buffer to the file.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing to the file.
+	 */
+	private void flush() throws IOException {
+		for(int c=0; c<buffers.length; c++) {
+			ByteBuffer buffer = buffers[c];
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				positions[c] += channel.write(buffer, positions[c]);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * Writes any buffered values and the file header, then closes the file.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing to the file, or if fewer {@link Source}s were written than were
+	 * specified when the writer was opened.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if(count != size) {
+				throw new IOException("Expected " + size + " Sources, found " + count);
+			}
+			flush();
+			ByteBuffer header = ByteBuffer.allocate(ColumnarSourceCatalogue.HEADER_BYTES);
+			header.putInt(ColumnarSourceCatalogue.MAGIC);
+			header.putInt(ColumnarSourceCatalogue.VERSION);
+			header.putInt(size);
+			header.flip();
+			while(header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+		}
+		finally {
+			channel.close();
+			raf.close();
+		}
+	}
+}
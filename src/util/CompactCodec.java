@@ -0,0 +1,349 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import dm.Sample;
+import dm.Source;
+import dm.Source.Type;
+import dm.Window;
+
+/**
+ * Versioned, compact binary codec for files of {@link Window}s (including their {@link Window#sources}) and
+ * {@link Source}s (including their {@link Sample}s). This replaces Java serialization for the training sets:
+ * the encoding is several times smaller and faster to read, and doesn't depend on the serial version UID of
+ * the classes.
+ *
+ * File layout:
+ *
+ *  - Header: magic number (4 bytes), format version (2 bytes), content kind (1 byte; {@link #KIND_WINDOW}
+ *    or {@link #KIND_SOURCE}), then the schema describing the records (modified UTF-8 string, as written
+ *    by {@link DataOutput#writeUTF(String)}).
+ *  - Records: each record is preceded by a single byte marker with value 1; the records continue until the
+ *    end of the file. The record layout is given by {@link #WINDOW_SCHEMA} and {@link #SOURCE_SCHEMA}.
+ *
+ * Files in this format use the extension {@link #EXTENSION}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class CompactCodec {
+
+	/**
+	 * Magic number identifying a file written with the {@link CompactCodec} ("GSCX").
+	 */
+	public static final int MAGIC = 0x47534358;
+
+	/**
+	 * The version of the format.
+	 */
+	public static final short VERSION = 1;
+
+	/**
+	 * The extension used for files in this format.
+	 */
+	public static final String EXTENSION = ".gsc";
+
+	/**
+	 * Content kind for files of {@link Window}s.
+	 */
+	public static final byte KIND_WINDOW = 1;
+
+	/**
+	 * Content kind for files of {@link Source}s.
+	 */
+	public static final byte KIND_SOURCE = 2;
+
+	/**
+	 * Marker byte written before each record.
+	 */
+	private static final int RECORD_MARKER = 1;
+
+	/**
+	 * Schema of the {@link Sample} records embedded in the {@link Source} records.
+	 */
+	private static final String SAMPLE_SCHEMA = "Sample{al:int16,ac:int16,level:float64}";
+
+	/**
+	 * Schema of the {@link Source} records.
+	 */
+	public static final String SOURCE_SCHEMA = "Source{alSampleSize:int32,acSampleSize:int32,alWinSize:int32,"
+			+ "acWinSize:int32,type:int8,obmtRev:float64,flux:float64,peakFlux:float64,fluxRatio:float64,"
+			+ "hasEigs:int8,eigs:float64[2 if hasEigs],orientation:float64,nSamples:int32,samples:Sample[nSamples]};"
+			+ SAMPLE_SCHEMA;
+
+	/**
+	 * Schema of the {@link Window} records.
+	 */
+	public static final String WINDOW_SCHEMA = "Window{fov:int8,row:int8,strip:int8,acWinCoord:int16,gate:int8,"
+			+ "transitId:int64,obmtRev:float64,alSamples:int32,acSamples:int32,alSampleSize:int32,"
+			+ "acSampleSize:int32,intTime:float64,samples:float32[alSamples*acSamples],nSources:int32,"
+			+ "sources:Source[nSources]};" + SOURCE_SCHEMA;
+
+	/**
+	 * Cached copy of {@link Type#values()}, used to decode the {@link Type} from its ordinal.
+	 */
+	private static final Type[] TYPES = Type.values();
+
+	/**
+	 * Determines whether the given {@link File} was written with the {@link CompactCodec}, by checking
+	 * the magic number.
+	 *
+	 * @param file
+	 * 	The {@link File} to check.
+	 * @return
+	 * 	True if the file starts with the {@link CompactCodec} magic number.
+	 * @throws IOException
+	 * 	If there's an exception reading the file.
+	 */
+	public static boolean isCompact(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 4))) {
+			return file.length() >= 4 && in.readInt() == MAGIC;
+		}
+	}
+
+	/**
+	 * Writes the file header.
+	 *
+	 * @param out
+	 * 	The {@link DataOutput} to write to.
+	 * @param kind
+	 * 	The content kind, either {@link #KIND_WINDOW} or {@link #KIND_SOURCE}.
+	 * @throws IOException
+	 * 	If there's an exception writing the header.
+	 */
+	public static void writeHeader(DataOutput out, byte kind) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeByte(kind);
+		out.writeUTF(kind == KIND_WINDOW ? WINDOW_SCHEMA : SOURCE_SCHEMA);
+	}
+
+	/**
+	 * Reads and checks the file header.
+	 *
+	 * @param in
+	 * 	The {@link DataInput} to read from.
+	 * @return
+	 * 	The content kind, either {@link #KIND_WINDOW} or {@link #KIND_SOURCE}.
+	 * @throws IOException
+	 * 	If there's an exception reading the header, or the file is not in a supported version of the format.
+	 */
+	public static byte readHeader(DataInput in) throws IOException {
+		if(in.readInt() != MAGIC) {
+			throw new IOException("Not a compact codec file");
+		}
+		short version = in.readShort();
+		if(version != VERSION) {
+			throw new IOException("Unsupported compact codec version " + version);
+		}
+		byte kind = in.readByte();
+		String schema = in.readUTF();
+		if(kind == KIND_WINDOW && schema.equals(WINDOW_SCHEMA)) {
+			return kind;
+		}
+		if(kind == KIND_SOURCE && schema.equals(SOURCE_SCHEMA)) {
+			return kind;
+		}
+		throw new IOException("Unrecognised compact codec schema: " + schema);
+	}
+
+	/**
+	 * Writes a {@link Window} record, including its {@link Window#sources}.
+	 *
+	 * @param out
+	 * 	The {@link DataOutput} to write to.
+	 * @param window
+	 * 	The {@link Window} to write.
+	 * @throws IOException
+	 * 	If there's an exception writing the record.
+	 */
+	public static void writeWindow(DataOutput out, Window window) throws IOException {
+		out.writeByte(RECORD_MARKER);
+		out.writeByte(window.fov);
+		out.writeByte(window.row);
+		out.writeByte(window.strip);
+		out.writeShort(window.acWinCoord);
+		out.writeByte(window.gate);
+		out.writeLong(window.transitId);
+		out.writeDouble(window.obmtRev);
+		out.writeInt(window.alSamples);
+		out.writeInt(window.acSamples);
+		out.writeInt(window.alSampleSize);
+		out.writeInt(window.acSampleSize);
+		out.writeDouble(window.intTime);
+		for(float sample : window.samples) {
+			out.writeFloat(sample);
+		}
+		out.writeInt(window.sources.size());
+		for(Source source : window.sources) {
+			writeSourceFields(out, source);
+		}
+	}
+
+	/**
+	 * Reads a {@link Window} record, including its {@link Window#sources}.
+	 *
+	 * @param in
+	 * 	The {@link DataInputStream} to read from.
+	 * @return
+	 * 	The {@link Window}, or null if the end of the file has been reached.
+	 * @throws IOException
+	 * 	If there's an exception reading the record.
+	 */
+	public static Window readWindow(DataInputStream in) throws IOException {
+		if(!readMarker(in)) {
+			return null;
+		}
+		byte fov = in.readByte();
+		byte row = in.readByte();
+		byte strip = in.readByte();
+		short acWinCoord = in.readShort();
+		byte gate = in.readByte();
+		long transitId = in.readLong();
+		double obmtRev = in.readDouble();
+		int alSamples = in.readInt();
+		int acSamples = in.readInt();
+		int alSampleSize = in.readInt();
+		int acSampleSize = in.readInt();
+		double intTime = in.readDouble();
+		float[] samples = new float[alSamples * acSamples];
+		for(int i=0; i<samples.length; i++) {
+			samples[i] = in.readFloat();
+		}
+		Window window = new Window(fov, row, strip, acWinCoord, gate, transitId, obmtRev,
+				alSamples, acSamples, alSampleSize, acSampleSize, intTime, samples);
+		int nSources = in.readInt();
+		for(int s=0; s<nSources; s++) {
+			window.sources.add(readSourceFields(in));
+		}
+		return window;
+	}
+
+	/**
+	 * Writes a {@link Source} record, including its {@link Sample}s.
+	 *
+	 * @param out
+	 * 	The {@link DataOutput} to write to.
+	 * @param source
+	 * 	The {@link Source} to write.
+	 * @throws IOException
+	 * 	If there's an exception writing the record.
+	 */
+	public static void writeSource(DataOutput out, Source source) throws IOException {
+		out.writeByte(RECORD_MARKER);
+		writeSourceFields(out, source);
+	}
+
+	/**
+	 * Reads a {@link Source} record, including its {@link Sample}s.
+	 *
+	 * @param in
+	 * 	The {@link DataInputStream} to read from.
+	 * @return
+	 * 	The {@link Source}, or null if the end of the file has been reached.
+	 * @throws IOException
+	 * 	If there's an exception reading the record.
+	 */
+	public static Source readSource(DataInputStream in) throws IOException {
+		if(!readMarker(in)) {
+			return null;
+		}
+		return readSourceFields(in);
+	}
+
+	/**
+	 * Reads the marker that precedes each record.
+	 *
+	 * @param in
+	 * 	The {@link DataInputStream} to read from.
+	 * @return
+	 * 	True if a record follows, false if the end of the file has been reached.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or the marker is invalid.
+	 */
+	private static boolean readMarker(DataInputStream in) throws IOException {
+		int marker = in.read();
+		if(marker < 0) {
+			return false;
+		}
+		if(marker != RECORD_MARKER) {
+			throw new IOException("Corrupt compact codec record marker: " + marker);
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the fields of a {@link Source}.
+	 *
+	 * @param out
+	 * 	The {@link DataOutput} to write to.
+	 * @param source
+	 * 	The {@link Source} to write.
+	 * @throws IOException
+	 * 	If there's an exception writing the fields.
+	 */
+	private static void writeSourceFields(DataOutput out, Source source) throws IOException {
+		out.writeInt(source.getAlSampleSize());
+		out.writeInt(source.getAcSampleSize());
+		out.writeInt(source.getAlWinSize());
+		out.writeInt(source.getAcWinSize());
+		out.writeByte(source.getType().ordinal());
+		out.writeDouble(source.getObmtRev());
+		out.writeDouble(source.getFlux());
+		out.writeDouble(source.getPeakFlux());
+		out.writeDouble(source.getFluxRatio());
+		double[] eigs = source.getEigenvalues();
+		out.writeByte(eigs == null ? 0 : 1);
+		if(eigs != null) {
+			out.writeDouble(eigs[0]);
+			out.writeDouble(eigs[1]);
+		}
+		out.writeDouble(source.getOrientation());
+		out.writeInt(source.getSamples().size());
+		for(Sample sample : source.getSamples()) {
+			out.writeShort(sample.getAl());
+			out.writeShort(sample.getAc());
+			out.writeDouble(sample.getLevel());
+		}
+	}
+
+	/**
+	 * Reads the fields of a {@link Source}.
+	 *
+	 * @param in
+	 * 	The {@link DataInput} to read from.
+	 * @return
+	 * 	The {@link Source}.
+	 * @throws IOException
+	 * 	If there's an exception reading the fields.
+	 */
+	private static Source readSourceFields(DataInput in) throws IOException {
+		int alSampleSize = in.readInt();
+		int acSampleSize = in.readInt();
+		int alWinSize = in.readInt();
+		int acWinSize = in.readInt();
+		Source source = new Source(alSampleSize, acSampleSize, alWinSize, acWinSize);
+		source.setType(TYPES[in.readByte()]);
+		source.setObmtRev(in.readDouble());
+		source.setFlux(in.readDouble());
+		source.setPeakFlux(in.readDouble());
+		source.setFluxRatio(in.readDouble());
+		if(in.readByte() != 0) {
+			source.setEigenvalues(new double[]{in.readDouble(), in.readDouble()});
+		}
+		source.setOrientation(in.readDouble());
+		int nSamples = in.readInt();
+		for(int i=0; i<nSamples; i++) {
+			int al = in.readShort();
+			int ac = in.readShort();
+			source.getSamples().add(new Sample(al, ac, in.readDouble()));
+		}
+		return source;
+	}
+}
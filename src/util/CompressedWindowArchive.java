@@ -0,0 +1,497 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import dm.Window;
+
+/**
+ * Read-only random access view of a block-compressed file of {@link Window}s, as written by the
+ * {@link CompressedWindowWriter}. The {@link Window}s are stored in the binary format produced by
+ * {@link Window#toByteArray(Window)}, grouped into blocks of consecutive records that are each compressed
+ * independently. A table of the block offsets at the end of the file allows any block to be located and
+ * decompressed without reading the rest of the file, and several blocks to be decompressed in parallel.
+ *
+ * File layout:
+ *
+ *  - Header ({@link #HEADER_BYTES} bytes): magic number, format version, {@link Codec} ordinal, number of
+ *    {@link Window}s, number of blocks (4 bytes each), then the byte offset of the block table (8 bytes).
+ *  - Blocks: the compressed records.
+ *  - Block table: for each block, the byte offset in the file (8 bytes), the compressed length, the
+ *    uncompressed length and the index of the first {@link Window} in the block (4 bytes each).
+ *
+ * Only the block table is held in memory. The most recently decompressed block is cached so that
+ * sequential calls to {@link #get(int)} only decompress each block once; note that each call to
+ * {@link #get(int)} still decodes a new {@link Window} instance.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class CompressedWindowArchive extends AbstractList<Window> implements RandomAccess {
+
+	/**
+	 * Magic number identifying a block-compressed {@link Window} file ("GSWZ").
+	 */
+	public static final int MAGIC = 0x4753575A;
+
+	/**
+	 * The version of the format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The size of the file header [bytes].
+	 */
+	public static final int HEADER_BYTES = 28;
+
+	/**
+	 * The size of each entry in the block table [bytes].
+	 */
+	public static final int BLOCK_ENTRY_BYTES = 20;
+
+	/**
+	 * The extension used for block-compressed {@link Window} files.
+	 */
+	public static final String EXTENSION = ".wz";
+
+	/**
+	 * Enumerates the compression codecs that may be applied to the blocks.
+	 */
+	public static enum Codec {
+
+		/**
+		 * Blocks are stored without compression.
+		 */
+		NONE(Deflater.NO_COMPRESSION),
+
+		/**
+		 * Blocks are compressed with the {@link Deflater} at the default compression level.
+		 */
+		DEFLATE(Deflater.DEFAULT_COMPRESSION),
+
+		/**
+		 * Blocks are compressed with the {@link Deflater} at the fastest compression level; this gives
+		 * slightly larger files than {@link #DEFLATE} but is considerably faster to write.
+		 */
+		DEFLATE_FAST(Deflater.BEST_SPEED);
+
+		/**
+		 * The {@link Deflater} compression level.
+		 */
+		public final int level;
+
+		/**
+		 * Main constructor for the {@link Codec}.
+		 * @param level
+		 * 	The {@link Deflater} compression level.
+		 */
+		Codec(int level) {
+			this.level = level;
+		}
+	}
+
+	/**
+	 * The {@link File} containing the {@link Window}s.
+	 */
+	private final File file;
+
+	/**
+	 * The {@link Codec} used to compress the blocks.
+	 */
+	private final Codec codec;
+
+	/**
+	 * The number of {@link Window}s in the file.
+	 */
+	private final int size;
+
+	/**
+	 * For each block, the byte offset in the file.
+	 */
+	private final long[] blockOffset;
+
+	/**
+	 * For each block, the compressed length [bytes].
+	 */
+	private final int[] blockCompressedLength;
+
+	/**
+	 * For each block, the uncompressed length [bytes].
+	 */
+	private final int[] blockLength;
+
+	/**
+	 * For each block, the index of the first {@link Window} in the block.
+	 */
+	private final int[] blockFirstRecord;
+
+	/**
+	 * The most recently decompressed block, used by {@link #get(int)}.
+	 */
+	private volatile DecompressedBlock cache;
+
+	/**
+	 * Main constructor for the {@link CompressedWindowArchive}. Reads the file header and block table.
+	 *
+	 * @param file
+	 * 	The block-compressed {@link File} containing the {@link Window}s.
+	 * @throws IOException
+	 * 	If there's an exception reading the file, or if it's not a block-compressed {@link Window} file.
+	 */
+	public CompressedWindowArchive(File file) throws IOException {
+
+		this.file = file;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel channel = raf.getChannel()) {
+
+			ByteBuffer header = read(channel, 0, HEADER_BYTES);
+			if(header.getInt(0) != MAGIC) {
+				throw new IOException("File " + file.getName() + " is not a block-compressed Window file");
+			}
+			if(header.getInt(4) != VERSION) {
+				throw new IOException("Unsupported version " + header.getInt(4) + " of file " + file.getName());
+			}
+			codec = Codec.values()[header.getInt(8)];
+			size = header.getInt(12);
+			int nBlocks = header.getInt(16);
+			long tableOffset = header.getLong(20);
+
+			ByteBuffer table = read(channel, tableOffset, nBlocks * BLOCK_ENTRY_BYTES);
+			blockOffset = new long[nBlocks];
+			blockCompressedLength = new int[nBlocks];
+			blockLength = new int[nBlocks];
+			blockFirstRecord = new int[nBlocks];
+			for(int b=0; b<nBlocks; b++) {
+				blockOffset[b] = table.getLong();
+				blockCompressedLength[b] = table.getInt();
+				blockLength[b] = table.getInt();
+				blockFirstRecord[b] = table.getInt();
+			}
+		}
+	}
+
+	/**
+	 * Reads the given range of bytes from the {@link FileChannel}, using positional reads so that several
+	 * threads may read from the same channel.
+	 *
+	 * @param channel
+	 * 	The {@link FileChannel} to read.
+	 * @param position
+	 * 	The byte offset in the file to start reading from.
+	 * @param length
+	 * 	The number of bytes to read.
+	 * @return
+	 * 	A {@link ByteBuffer} containing the bytes read, with position zero.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or the file is truncated.
+	 */
+	private ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Truncated file " + file.getName());
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Get the {@link Codec} used to compress the blocks.
+	 * @return
+	 * 	The {@link Codec} used to compress the blocks.
+	 */
+	public Codec getCodec() {
+		return codec;
+	}
+
+	/**
+	 * Get the number of blocks in the file.
+	 * @return
+	 * 	The number of blocks in the file.
+	 */
+	public int getBlockCount() {
+		return blockOffset.length;
+	}
+
+	/**
+	 * Get the index of the first {@link Window} in the given block.
+	 * @param block
+	 * 	The index of the block.
+	 * @return
+	 * 	The index of the first {@link Window} in the block.
+	 */
+	public int getBlockFirstRecord(int block) {
+		return blockFirstRecord[block];
+	}
+
+	/**
+	 * Get the number of {@link Window}s in the given block.
+	 * @param block
+	 * 	The index of the block.
+	 * @return
+	 * 	The number of {@link Window}s in the block.
+	 */
+	public int getBlockSize(int block) {
+		int end = block + 1 < blockFirstRecord.length ? blockFirstRecord[block + 1] : size;
+		return end - blockFirstRecord[block];
+	}
+
+	/**
+	 * Finds the block containing the {@link Window} at the given position in the file.
+	 * @param index
+	 * 	The index of the {@link Window} in the file.
+	 * @return
+	 * 	The index of the block containing the {@link Window}.
+	 */
+	public int getBlockForRecord(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		int b = Arrays.binarySearch(blockFirstRecord, index);
+		if(b < 0) {
+			// Index lies within block -(b+1)-1
+			b = -b - 2;
+		}
+		else {
+			// Skip back over any empty blocks starting at the same record
+			while(b > 0 && blockFirstRecord[b - 1] == index) {
+				b--;
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Reads and decompresses the given block, returning the uncompressed records. This method is thread
+	 * safe, so different blocks may be decompressed in parallel.
+	 *
+	 * @param block
+	 * 	The index of the block.
+	 * @return
+	 * 	A {@link ByteBuffer} containing the uncompressed records of the block, in the binary format produced
+	 * by {@link Window#toByteArray(Window)}.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or the block is corrupt.
+	 */
+	public ByteBuffer readBlockBytes(int block) throws IOException {
+
+		ByteBuffer compressed;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel channel = raf.getChannel()) {
+			compressed = read(channel, blockOffset[block], blockCompressedLength[block]);
+		}
+
+		if(codec == Codec.NONE) {
+			return compressed;
+		}
+
+		byte[] records = new byte[blockLength[block]];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed.array(), 0, compressed.limit());
+			int n = 0;
+			while(n < records.length && !inflater.finished()) {
+				int inflated = inflater.inflate(records, n, records.length - n);
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				n += inflated;
+			}
+			if(n != records.length) {
+				throw new IOException("Corrupt block " + block + " in file " + file.getName());
+			}
+		}
+		catch(DataFormatException e) {
+			throw new IOException("Corrupt block " + block + " in file " + file.getName(), e);
+		}
+		finally {
+			inflater.end();
+		}
+		return ByteBuffer.wrap(records);
+	}
+
+	/**
+	 * Reads, decompresses and decodes all the {@link Window}s in the given block. This method is thread
+	 * safe, so different blocks may be read in parallel.
+	 *
+	 * @param block
+	 * 	The index of the block.
+	 * @return
+	 * 	The {@link Window}s in the block, in file order.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or the block is corrupt.
+	 */
+	public List<Window> readBlock(int block) throws IOException {
+		ByteBuffer records = readBlockBytes(block);
+		int n = getBlockSize(block);
+		List<Window> windows = new ArrayList<>(n);
+		int pos = 0;
+		for(int i=0; i<n; i++) {
+			windows.add(Window.fromByteBuffer(records, pos));
+			pos += Window.getEncodedLength(records, pos);
+		}
+		return windows;
+	}
+
+	/**
+	 * Reads the given range of blocks, decompressing and decoding the blocks in parallel on the
+	 * {@link ExecutorService}. The {@link Window}s are returned in file order.
+	 *
+	 * @param firstBlock
+	 * 	The index of the first block to read (inclusive).
+	 * @param lastBlock
+	 * 	The index of the last block to read (exclusive).
+	 * @param executor
+	 * 	The {@link ExecutorService} used to read the blocks.
+	 * @return
+	 * 	The {@link Window}s in the range of blocks, in file order.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or any block is corrupt.
+	 */
+	public List<Window> readBlocks(int firstBlock, int lastBlock, ExecutorService executor) throws IOException {
+
+		List<Future<List<Window>>> futures = new ArrayList<>(lastBlock - firstBlock);
+		for(int b=firstBlock; b<lastBlock; b++) {
+			final int block = b;
+			futures.add(executor.submit(new Callable<List<Window>>() {
+				@Override
+				public List<Window> call() throws IOException {
+					return readBlock(block);
+				}
+			}));
+		}
+
+		int n = (lastBlock < blockFirstRecord.length ? blockFirstRecord[lastBlock] : size)
+				- (firstBlock < blockFirstRecord.length ? blockFirstRecord[firstBlock] : size);
+		List<Window> windows = new ArrayList<>(n);
+		try {
+			for(Future<List<Window>> future : futures) {
+				windows.addAll(future.get());
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		catch(ExecutionException e) {
+			for(Future<List<Window>> future : futures) {
+				future.cancel(true);
+			}
+			if(e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		return windows;
+	}
+
+	/**
+	 * Reads all the {@link Window}s in the file, decompressing and decoding the blocks in parallel.
+	 *
+	 * @param nThreads
+	 * 	The number of threads to use.
+	 * @return
+	 * 	All the {@link Window}s in the file, in file order.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or any block is corrupt.
+	 */
+	public List<Window> readAll(int nThreads) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			return readBlocks(0, getBlockCount(), executor);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Decodes the {@link Window} at the given position in the file, decompressing the block that
+	 * contains it if it is not the most recently used block.
+	 *
+	 * @param index
+	 * 	The index of the {@link Window} in the file.
+	 * @return
+	 * 	The {@link Window} at the given position in the file.
+	 * @throws UncheckedIOException
+	 * 	If there's an exception reading the block from the file.
+	 */
+	@Override
+	public Window get(int index) {
+		int block = getBlockForRecord(index);
+		DecompressedBlock cached = cache;
+		if(cached == null || cached.block != block) {
+			cached = new DecompressedBlock(block);
+			cache = cached;
+		}
+		return Window.fromByteBuffer(cached.records, cached.recordPosition[index - blockFirstRecord[block]]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * A decompressed block, with the position of each record within it.
+	 */
+	private final class DecompressedBlock {
+
+		/**
+		 * The index of the block.
+		 */
+		final int block;
+
+		/**
+		 * The uncompressed records.
+		 */
+		final ByteBuffer records;
+
+		/**
+		 * For each record in the block, the position of the first byte within {@link #records}.
+		 */
+		final int[] recordPosition;
+
+		/**
+		 * Main constructor for the {@link DecompressedBlock}.
+		 * @param block
+		 * 	The index of the block.
+		 */
+		DecompressedBlock(int block) {
+			this.block = block;
+			try {
+				records = readBlockBytes(block);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Couldn't read block " + block + " of file " + file.getName(), e);
+			}
+			recordPosition = new int[getBlockSize(block)];
+			int pos = 0;
+			for(int i=0; i<recordPosition.length; i++) {
+				recordPosition[i] = pos;
+				pos += Window.getEncodedLength(records, pos);
+			}
+		}
+	}
+}
@@ -0,0 +1,236 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import dm.Window;
+import util.CompressedWindowArchive.Codec;
+
+/**
+ * Writer for block-compressed files of {@link Window}s; see {@link CompressedWindowArchive} for the file
+ * layout. {@link Window}s are encoded into a block buffer in the binary format produced by
+ * {@link Window#toByteArray(Window)}; once the block reaches the configured size it is compressed and
+ * written to the file, so the memory required is bounded by the block size rather than the number of
+ * {@link Window}s written. The block table and file header are written when the writer is closed.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class CompressedWindowWriter extends WindowWriter {
+
+	/**
+	 * The default uncompressed size of each block [bytes].
+	 */
+	public static final int DEFAULT_BLOCK_BYTES = 1 << 18;
+
+	/**
+	 * The {@link RandomAccessFile} being written.
+	 */
+	private final RandomAccessFile raf;
+
+	/**
+	 * The {@link FileChannel} on the file being written.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The {@link Codec} used to compress the blocks.
+	 */
+	private final Codec codec;
+
+	/**
+	 * The {@link Deflater} used to compress the blocks.
+	 */
+	private final Deflater deflater;
+
+	/**
+	 * The uncompressed size at which each block is written to the file [bytes].
+	 */
+	private final int blockBytes;
+
+	/**
+	 * Buffer for the encoded {@link Window}s of the current block.
+	 */
+	private ByteBuffer block;
+
+	/**
+	 * Buffer for the compressed block.
+	 */
+	private byte[] compressed;
+
+	/**
+	 * The number of {@link Window}s written so far.
+	 */
+	private int count = 0;
+
+	/**
+	 * The index of the first {@link Window} in the current block.
+	 */
+	private int blockFirstRecord = 0;
+
+	/**
+	 * The byte offset in the file at which the next block will be written.
+	 */
+	private long position = CompressedWindowArchive.HEADER_BYTES;
+
+	/**
+	 * The block table entries for the blocks written so far.
+	 */
+	private ByteBuffer table = ByteBuffer.allocate(64 * CompressedWindowArchive.BLOCK_ENTRY_BYTES);
+
+	/**
+	 * The number of blocks written so far.
+	 */
+	private int nBlocks = 0;
+
+	/**
+	 * Constructor for the {@link CompressedWindowWriter} using the {@link Codec#DEFLATE} codec and blocks
+	 * of the default size.
+	 *
+	 * @param file
+	 * 	The {@link File} to write.
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public CompressedWindowWriter(File file) throws IOException {
+		this(file, Codec.DEFLATE, DEFAULT_BLOCK_BYTES);
+	}
+
+	/**
+	 * Main constructor for the {@link CompressedWindowWriter}.
+	 *
+	 * @param file
+	 * 	The {@link File} to write.
+	 * @param codec
+	 * 	The {@link Codec} used to compress the blocks.
+	 * @param blockBytes
+	 * 	The uncompressed size of each block [bytes]. Larger blocks compress slightly better, while smaller
+	 * blocks are faster to seek to. A block is always large enough to hold at least one {@link Window}.
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public CompressedWindowWriter(File file, Codec codec, int blockBytes) throws IOException {
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+		this.codec = codec;
+		this.blockBytes = blockBytes;
+		deflater = new Deflater(codec.level);
+		block = ByteBuffer.allocate(blockBytes);
+		compressed = new byte[blockBytes];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void write(Window window) throws IOException {
+		int length = Window.getEncodedLength(window);
+		if(block.position() > 0 && block.position() + length > blockBytes) {
+			flushBlock();
+		}
+		if(block.remaining() < length) {
+			// Single record larger than the block size
+			block = ByteBuffer.allocate(length);
+		}
+		Window.toByteBuffer(window, block);
+		count++;
+	}
+
+	/**
+	 * Compresses the current block and writes it to the file, then records its entry in the block table.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing to the file.
+	 */
+	private void flushBlock() throws IOException {
+
+		int length = block.position();
+		if(length == 0) {
+			return;
+		}
+
+		ByteBuffer out;
+		if(codec == Codec.NONE) {
+			out = ByteBuffer.wrap(block.array(), 0, length);
+		}
+		else {
+			deflater.reset();
+			deflater.setInput(block.array(), 0, length);
+			deflater.finish();
+			int n = 0;
+			while(!deflater.finished()) {
+				if(n == compressed.length) {
+					compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+				}
+				n += deflater.deflate(compressed, n, compressed.length - n);
+			}
+			out = ByteBuffer.wrap(compressed, 0, n);
+		}
+
+		int compressedLength = out.remaining();
+		while(out.hasRemaining()) {
+			channel.write(out, position + compressedLength - out.remaining());
+		}
+
+		if(table.remaining() < CompressedWindowArchive.BLOCK_ENTRY_BYTES) {
+			ByteBuffer larger = ByteBuffer.allocate(2 * table.capacity());
+			table.flip();
+			larger.put(table);
+			table = larger;
+		}
+		table.putLong(position);
+		table.putInt(compressedLength);
+		table.putInt(length);
+		table.putInt(blockFirstRecord);
+		nBlocks++;
+
+		position += compressedLength;
+		blockFirstRecord = count;
+		if(block.capacity() > blockBytes) {
+			block = ByteBuffer.allocate(blockBytes);
+		}
+		block.clear();
+	}
+
+	/**
+	 * Writes the final block, the block table and the file header, then closes the file.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing to the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBlock();
+
+			long tableOffset = position;
+			table.flip();
+			while(table.hasRemaining()) {
+				channel.write(table, tableOffset + table.position());
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(CompressedWindowArchive.HEADER_BYTES);
+			header.putInt(CompressedWindowArchive.MAGIC);
+			header.putInt(CompressedWindowArchive.VERSION);
+			header.putInt(codec.ordinal());
+			header.putInt(count);
+			header.putInt(nBlocks);
+			header.putLong(tableOffset);
+			header.flip();
+			while(header.hasRemaining()) {
+				channel.write(header, header.position());
+			}
+		}
+		finally {
+			deflater.end();
+			channel.close();
+			raf.close();
+		}
+	}
+}
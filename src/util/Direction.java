@@ -100,4 +100,27 @@ public enum Direction {
      */
     public static final Direction[] EAST_WEST = new Direction[] { Direction.E, Direction.W };
 
+    /**
+     * Selects the appropriate pixel neighbourhood for the source detection, based on the window geometry.
+     *
+     * @param alLength
+     *            Length of samples window in AL direction
+     * @param acLength
+     *            Length of samples window in AC direction
+     * @return The neighbourhood: {@link #NORTH_SOUTH} for 1D windows with no AL extent, {@link #EAST_WEST} for 1D
+     *         windows with no AC extent, and {@link #EIGHT_NEIGHBOURS} for 2D windows.
+     */
+    public static Direction[] getNeighbourhood(int alLength, int acLength) {
+        if (alLength == 1) {
+            // 1D windows with no AL extent (e.g. 2D windows that have been marginalised)
+            return NORTH_SOUTH;
+        } else if (acLength == 1) {
+            // 1D windows with no AC extent (e.g. all window class 1 & 2 transits)
+            return EAST_WEST;
+        } else {
+            // 2D windows (e.g. class 0 transits, and all SM)
+            return EIGHT_NEIGHBOURS;
+        }
+    }
+
 }
@@ -1,5 +1,10 @@
 package util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -8,11 +13,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import dm.Source;
+import dm.Window;
+
 /**
  * Utilities related to {@link File} handling.
  *
@@ -28,19 +38,34 @@ public class FileUtil {
     protected static Logger logger = Logger.getLogger(FileUtil.class.getCanonicalName());
     
     /**
-     * A {@link FileFilter} used to filter files containing {@link dm.Window} data.
+     * The file extensions of the formats that the same {@link Window}s or {@link Source}s may be stored in, in order of
+     * preference. When a directory contains several files with the same base name in different formats (for example
+     * a .ser file and the .gsc file converted from it), {@link #listFiles(File, FileFilter)} and
+     * {@link #listFilesRecursive(File, FileFilter)} return only the most preferred one, so that the contents are not
+     * loaded twice.
+     */
+    private static final String[] FORMAT_PREFERENCE = {CompactCodec.EXTENSION, CompressedWindowArchive.EXTENSION,
+    		".dat", ".ser"};
+    
+    /**
+     * A {@link FileFilter} used to filter files containing {@link dm.Window} data. Sidecar
+     * {@link WindowIndex} files are excluded. Note that this accepts every format of a file; use
+     * {@link #listFiles(File, FileFilter)} or {@link #listFilesRecursive(File, FileFilter)} to select one format
+     * for each base name.
      */
     public static final FileFilter windowFileFilter = new FileFilter() {
 		public boolean accept(File file) {
 			if(!file.isFile()) {
 				return false;
 			}
-			return file.getName().startsWith("Window_");
+			return file.getName().startsWith("Window_") && !file.getName().endsWith(WindowIndex.EXTENSION);
 		}
 	};
 
     /**
-     * A {@link FileFilter} used to filter files containing {@link dm.Source} data.
+     * A {@link FileFilter} used to filter files containing {@link dm.Source} data. Note that this accepts every
+     * format of a file; use {@link #listFiles(File, FileFilter)} or {@link #listFilesRecursive(File, FileFilter)} to
+     * select one format for each base name.
      */
 	public static final FileFilter sourceFileFilter = new FileFilter() {
 		public boolean accept(File file) {
@@ -72,7 +97,87 @@ public class FileUtil {
 	}
 	
 	/**
-	 * Uses Java deserialization to read an object from file.
+	 * Writes the {@link List} of {@link Window}s (including their {@link Window#sources}) to the {@link File}
+	 * using the {@link CompactCodec}.
+	 * 
+	 * @param outputFile
+	 * 	The {@link File} to write the {@link Window}s to.
+	 * @param windows
+	 * 	The {@link Window}s to write to the {@link File}.
+	 */
+	public static void writeWindows(File outputFile, List<Window> windows) {
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+			CompactCodec.writeHeader(out, CompactCodec.KIND_WINDOW);
+			for(Window window : windows) {
+				CompactCodec.writeWindow(out, window);
+			}
+		}
+		catch(IOException ex){
+			logger.log(Level.SEVERE, "Exception on writing to file.", ex);
+		}
+	}
+	
+	/**
+	 * Writes the {@link List} of {@link Source}s (including their {@link dm.Sample}s) to the {@link File}
+	 * using the {@link CompactCodec}.
+	 * 
+	 * @param outputFile
+	 * 	The {@link File} to write the {@link Source}s to.
+	 * @param sources
+	 * 	The {@link Source}s to write to the {@link File}.
+	 */
+	public static void writeSources(File outputFile, List<Source> sources) {
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+			CompactCodec.writeHeader(out, CompactCodec.KIND_SOURCE);
+			for(Source source : sources) {
+				CompactCodec.writeSource(out, source);
+			}
+		}
+		catch(IOException ex){
+			logger.log(Level.SEVERE, "Exception on writing to file.", ex);
+		}
+	}
+	
+	/**
+	 * Reads a {@link List} of {@link Window}s or {@link Source}s written with the {@link CompactCodec}.
+	 * 
+	 * @param inputFile
+	 * 	The {@link File} to read.
+	 * @return
+	 * 	The {@link List} of {@link Window}s or {@link Source}s read from the {@link File}.
+	 * @throws IOException
+	 * 	If there's an exception reading the file.
+	 */
+	private static List<?> readCompact(File inputFile) throws IOException {
+		
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inputFile)))) {
+			if(CompactCodec.readHeader(in) == CompactCodec.KIND_WINDOW) {
+				List<Window> windows = new LinkedList<>();
+				Window window;
+				while((window = CompactCodec.readWindow(in)) != null) {
+					windows.add(window);
+				}
+				return windows;
+			}
+			else {
+				List<Source> sources = new LinkedList<>();
+				Source source;
+				while((source = CompactCodec.readSource(in)) != null) {
+					sources.add(source);
+				}
+				return sources;
+			}
+		}
+	}
+	
+	/**
+	 * Reads an object from file. Files written with the {@link CompactCodec} (see {@link #writeWindows(File, List)}
+	 * and {@link #writeSources(File, List)}) are detected from the magic number and decoded to a {@link List} of
+	 * {@link Window}s or {@link Source}s; otherwise Java deserialization is used. Files holding a stream of
+	 * individual {@link Window}s, as written by the {@link WindowWriter}, are read in full and returned as a
+	 * single {@link List} of {@link Window}s, like the other serialized files.
 	 * @param outputFile
 	 * 	The {@link File} to write the {@link Object} from.
 	 * @return
@@ -82,9 +187,31 @@ public class FileUtil {
 		
 		Object output = null;
 		
+		try {
+			if(CompactCodec.isCompact(outputFile)) {
+				return readCompact(outputFile);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		
 		try (FileInputStream fileIn = new FileInputStream(outputFile);
 			 ObjectInputStream in = new ObjectInputStream(fileIn);) {
 			output = in.readObject();
+			if(output instanceof Window) {
+				// Stream of individual Windows; collect the rest of them into a List
+				List<Window> windows = new LinkedList<>();
+				windows.add((Window) output);
+				try {
+					while(true) {
+						windows.add((Window) in.readObject());
+					}
+				} catch (EOFException e) {
+					// Reached the end of the stream
+				}
+				output = windows;
+			}
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -97,7 +224,24 @@ public class FileUtil {
 	}
 	
 	/**
-	 * List files in a given directory recursively.
+	 * List the files in a given directory that are accepted by the filter. Where the directory contains the same
+	 * file in more than one format, only the most preferred format is returned; see {@link #FORMAT_PREFERENCE}.
+	 * 
+	 * @param parent
+	 * 	The directory to list.
+	 * @param filter
+	 * 	The {@link FileFilter} to apply to the files.
+	 * @return
+	 * 	Array of the files accepted by the filter, with one format for each base name.
+	 */
+	public static File[] listFiles(File parent, FileFilter filter) {
+		List<File> files = selectPreferredFormats(parent.listFiles(filter));
+		return files.toArray(new File[files.size()]);
+	}
+	
+	/**
+	 * List files in a given directory recursively. Where a directory contains the same file in more than one
+	 * format, only the most preferred format is returned; see {@link #FORMAT_PREFERENCE}.
 	 * 
 	 * @param parent
 	 * 	The top level directory
@@ -109,18 +253,68 @@ public class FileUtil {
 	public static List<File> listFilesRecursive(File parent, FileFilter filter) {
 		
 		List<File> files = new LinkedList<>();
+		List<File> accepted = new LinkedList<>();
 		
 		for(File file : parent.listFiles()) {
 			// If this is a regular file then conditionally add it to the output list
 			if(file.isFile() && filter.accept(file)) {
-				files.add(file);
+				accepted.add(file);
 			}
 			// If this is a subdirectory then recursively search it
 			if(file.isDirectory()) {
 				files.addAll(listFilesRecursive(file, filter));
 			}
 		}
+		files.addAll(0, selectPreferredFormats(accepted.toArray(new File[accepted.size()])));
 		return files;
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * Selects the most preferred format of each file from the files in a single directory; see
+	 * {@link #FORMAT_PREFERENCE}. Files with an extension not in the list are always kept.
+	 * 
+	 * @param files
+	 * 	The files in the directory.
+	 * @return
+	 * 	List of the files, with one format for each base name.
+	 */
+	private static List<File> selectPreferredFormats(File[] files) {
+		
+		Map<String, File> selected = new LinkedHashMap<>();
+		
+		for(File file : files) {
+			String name = file.getName();
+			int rank = getFormatRank(name);
+			if(rank == FORMAT_PREFERENCE.length) {
+				// Not one of the interchangeable formats
+				selected.put(name, file);
+				continue;
+			}
+			String baseName = name.substring(0, name.length() - FORMAT_PREFERENCE[rank].length());
+			File current = selected.get(baseName);
+			if(current == null || rank < getFormatRank(current.getName())) {
+				selected.put(baseName, file);
+			}
+		}
+		return new LinkedList<>(selected.values());
+	}
+	
+	/**
+	 * Gets the position of the file format in {@link #FORMAT_PREFERENCE}.
+	 * 
+	 * @param name
+	 * 	The name of the file.
+	 * @return
+	 * 	The index of the file extension in {@link #FORMAT_PREFERENCE}, or the length of the array if it's not
+	 * one of the listed formats.
+	 */
+	private static int getFormatRank(String name) {
+		for(int i=0; i<FORMAT_PREFERENCE.length; i++) {
+			if(name.endsWith(FORMAT_PREFERENCE[i])) {
+				return i;
+			}
+		}
+		return FORMAT_PREFERENCE.length;
+	}
+	
+}
@@ -1,6 +1,7 @@
 package util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 
 /**
@@ -83,6 +84,44 @@ public class FloatList extends ArrayList<Float> {
 		return (get(lower) + get(upper))/2.0f;
 		
 	}
+
+	/**
+	 * Computes percentiles of the first n elements of an array, as for {@link #getPercentile(float)} but without
+	 * the overhead of boxing the values into a {@link FloatList}. The results are identical.
+	 * @param values		The array of values. Note that the first n elements are sorted into ascending order.
+	 * @param n				The number of elements of the array to use.
+	 * @param percentile	The desired percentile level [0.0->100.0].
+	 * @return				The value below which the fraction of data specified fall.
+	 */
+	public static float getPercentile(float[] values, int n, float percentile) {
+		// Sanity check
+		if(percentile < 0.0 || percentile > 100.0)
+			throw new IllegalArgumentException("Percentile must lie in range 0:100! Found "+percentile);
+		
+		if(n==0) 
+			return Float.NaN;
+		
+		// Sort elements into ascending order; this uses the same ordering as Float.compareTo
+		Arrays.sort(values, 0, n);
+		
+		// Check for extreme percentiles, or arrays with only 1 element, both of which will fail the algorithm below
+		if(percentile==0.0)
+			return values[0];
+		if(percentile==100.0)
+			return values[n-1];
+		if(n==1)
+			return values[0];
+		
+		// Get number of elements in given percentile
+		float percN = percentile * ((float)n/100.0f);
+		
+		// Get the indices of the two elements closest to this point in the array
+		int lower = (int)Math.floor(percN);
+		int upper = (int)Math.ceil(percN);
+		
+		// Take the average of these two points as the percentile
+		return (values[lower] + values[upper])/2.0f;
+	}
 	
 	/**
 	 * Computes the mean value of the elements in the list.
@@ -10,6 +10,41 @@ import java.util.Arrays;
  */
 public class LocalBkgUtils {
 
+    /**
+     * The number of lowest value samples to use for windows with more samples than are covered by
+     * {@link #LOWEST_SAMPLE_COUNT}.
+     */
+    private static final int DEFAULT_LOWEST_SAMPLE_COUNT = 4;
+
+    /**
+     * Lookup table of the number of lowest value samples to examine to obtain the background estimate, indexed by the
+     * number of samples in the window (i.e. alSamples x acSamples). We use a different number for each window size in
+     * order to get a more robust estimate for the larger windows.
+     */
+    private static final int[] LOWEST_SAMPLE_COUNT = new int[40 * 6 + 1];
+
+    static {
+        Arrays.fill(LOWEST_SAMPLE_COUNT, DEFAULT_LOWEST_SAMPLE_COUNT);
+        // Class 2 windows in AF1
+        LOWEST_SAMPLE_COUNT[6] = 2;
+        // Class 1 & 2 windows in AF2-9; class 1 windows in AF1
+        LOWEST_SAMPLE_COUNT[12] = 4;
+        LOWEST_SAMPLE_COUNT[18] = 4;
+        // Class 0 windows in AF2-9
+        LOWEST_SAMPLE_COUNT[18 * 12] = 31;
+        // Class 1 windows in SM
+        LOWEST_SAMPLE_COUNT[20 * 3] = 31;
+        // Class 0 windows in SM
+        LOWEST_SAMPLE_COUNT[40 * 6] = 31;
+        // Class 0 windows in AF1
+        LOWEST_SAMPLE_COUNT[108] = 11;
+    }
+
+    /**
+     * The largest number of lowest value samples used for any window.
+     */
+    public static final int MAX_LOWEST_SAMPLE_COUNT = 31;
+
     /**
      * Method obtains an empirical estimate of the local background for the samples, from the median and MAD of the
      * lowest four samples in the array. This will give a spurious result if there are eliminated samples present, but
@@ -20,89 +55,163 @@ public class LocalBkgUtils {
      * @return The background [0] and background error [1]
      */
     public static double[] estimateBackgroundAndError(float[] samples) {
+        return estimateBackgroundAndError(samples, new float[getLowestSampleCount(samples.length)], new double[2]);
+    }
 
-        // The number of lowest value elements to examine to obtain the
-        // background estimate. We use a different number for each window
-        // size in order to get a more robust estimate for the larger windows
-        int n = 4;
-
-        if (samples.length == 6) {
-            // Class 2 windows in AF1
-            n = 2;
-        } else if (samples.length == 12 || samples.length == 18) {
-            // Class 1 & 2 windows in AF2-9; class 1 windows in AF1
-            n = 4;
-        } else if (samples.length == 18 * 12) {
-            // Class 0 windows in AF2-9
-            n = 31;
-        } else if (samples.length == 20 * 3) {
-            // Class 1 windows in SM
-            n = 31;
-        } else if (samples.length == 40 * 6) {
-            // Class 0 windows in SM
-            n = 31;
-        } else if (samples.length == 108) {
-            // Class 0 windows in AF1
-            n = 11;
-        }
+    /**
+     * Alternative interface to {@link #estimateBackgroundAndError(float[])} that uses the given buffers rather than
+     * allocating new arrays, for use when processing many windows. The results are identical.
+     *
+     * Rather than sorting all of the samples, the lowest N are selected with a bounded max-heap of size N, which is
+     * then sorted in place; this costs O(L log N) for a window of L samples. If there are fewer than N samples, the
+     * remainder are taken to be zero.
+     *
+     * @param samples
+     *            Array of all samples
+     * @param scratch
+     *            Buffer used to select the lowest samples; must be at least as long as the number of samples given
+     *            by {@link #getLowestSampleCount(int)}. The contents are overwritten.
+     * @param bkgAndError
+     *            On exit, contains the background [0] and background error [1]
+     * @return The bkgAndError array
+     */
+    public static double[] estimateBackgroundAndError(float[] samples, float[] scratch, double[] bkgAndError) {
+        return estimateBackgroundAndError(samples, getLowestSampleCount(samples.length), scratch, bkgAndError);
+    }
 
-        // Sort samples into ascending order. Must clone array first to avoid
-        // scrambling the original array
-        final float[] sortedSamples = samples.clone();
-        Arrays.sort(sortedSamples);
+    /**
+     * Alternative interface to {@link #estimateBackgroundAndError(float[], float[], double[])} that takes the number
+     * of lowest value samples to use, for when it has already been looked up for windows of this size.
+     *
+     * @param samples
+     *            Array of all samples
+     * @param n
+     *            The number of lowest value samples to use, as given by {@link #getLowestSampleCount(int)}
+     * @param scratch
+     *            Buffer used to select the lowest samples; must be at least n long. The contents are overwritten.
+     * @param bkgAndError
+     *            On exit, contains the background [0] and background error [1]
+     * @return The bkgAndError array
+     */
+    public static double[] estimateBackgroundAndError(float[] samples, int n, float[] scratch, double[] bkgAndError) {
+
+        // Select the lowest N samples into a max-heap, so that the largest of those found so far is at the root.
+        // Samples are ordered as by Arrays.sort(float[]), i.e. by Float.compare.
+        int size = 0;
+        for (final float sample : samples) {
+            if (size < n) {
+                siftUp(scratch, size++, sample);
+            } else if (Float.compare(sample, scratch[0]) < 0) {
+                siftDown(scratch, 0, size, sample);
+            }
+        }
+        while (size < n) {
+            siftUp(scratch, size++, 0.0f);
+        }
 
-        // Copy the lowest values out to a new array
-        final float[] lowestNSamples = Arrays.copyOf(sortedSamples, n);
+        // Sort the heap into ascending order
+        for (int end = n - 1; end > 0; end--) {
+            final float largest = scratch[0];
+            siftDown(scratch, 0, end, scratch[end]);
+            scratch[end] = largest;
+        }
 
         // Median of the lowest N samples
-        final double median = LocalBkgUtils.median(lowestNSamples);
+        final double median = LocalBkgUtils.median(scratch, n);
 
-        // Absolute deviations of the lowest N samples
-        final double[] dev = new double[n];
+        // RMS of the absolute deviations of the lowest N samples. RMS is probably more appropriate for the
+        // background, because we tend to see multiple samples with the same value at the low end of the range.
+        double sumSq = 0.0;
         for (int i = 0; i < n; i++) {
-            dev[i] = Math.abs(lowestNSamples[i] - median);
+            final double dev = Math.abs(scratch[i] - median);
+            sumSq += dev * dev;
         }
+        sumSq /= n;
 
-        // RMS is probably more appropriate for the background, because we tend to
-        // see multiple samples with the same value at the low end of the range.
-        final double rms = LocalBkgUtils.rms(dev);
+        bkgAndError[0] = median;
+        bkgAndError[1] = Math.sqrt(sumSq);
+        return bkgAndError;
+    }
+
+    /**
+     * Get the number of lowest value samples to examine to obtain the background estimate for a window of the given
+     * number of samples; see {@link #LOWEST_SAMPLE_COUNT}.
+     *
+     * @param length
+     *            The number of samples in the window
+     * @return The number of lowest value samples to use
+     */
+    public static int getLowestSampleCount(int length) {
+        return length < LOWEST_SAMPLE_COUNT.length ? LOWEST_SAMPLE_COUNT[length] : DEFAULT_LOWEST_SAMPLE_COUNT;
+    }
 
-        return new double[] { median, rms };
+    /**
+     * Inserts a value into a max-heap, moving it up from the given (empty) position at the end of the heap.
+     *
+     * @param heap
+     *            The heap
+     * @param p
+     *            The position to insert the value at, i.e. the current size of the heap
+     * @param value
+     *            The value to insert
+     */
+    private static void siftUp(float[] heap, int p, float value) {
+        while (p > 0) {
+            final int parent = (p - 1) >>> 1;
+            if (Float.compare(heap[parent], value) >= 0) {
+                break;
+            }
+            heap[p] = heap[parent];
+            p = parent;
+        }
+        heap[p] = value;
     }
 
     /**
-     * Computes the RMS value of the elements in the array.
+     * Places a value into a max-heap at the given (vacated) position, moving it down to restore the heap order.
      *
-     * @param samples
-     *            The values to process
-     * @return The root-mean-square value of the array
+     * @param heap
+     *            The heap
+     * @param p
+     *            The vacated position
+     * @param size
+     *            The size of the heap
+     * @param value
+     *            The value to place
      */
-    private static double rms(double[] samples) {
-        double sumSq = 0.0;
-        for (final double sample : samples) {
-            sumSq += sample * sample;
+    private static void siftDown(float[] heap, int p, int size, float value) {
+        while (true) {
+            int child = 2 * p + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && Float.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (Float.compare(value, heap[child]) >= 0) {
+                break;
+            }
+            heap[p] = heap[child];
+            p = child;
         }
-        sumSq /= samples.length;
-        return Math.sqrt(sumSq);
+        heap[p] = value;
     }
 
     /**
-     * Computes the median value of the samples in the array. The order of the elements is changed by this operation.
+     * Computes the median value of the first n samples in the array, which must be sorted into ascending order.
      *
      * @param samples
-     *            The array of samples. Note that the order is changed by this method.
-     * @return The median value of the entries in the samples array.
+     *            The array of samples, the first n of which are sorted into ascending order.
+     * @param n
+     *            The number of samples to use.
+     * @return The median value of the first n entries in the samples array.
      */
-    private static float median(float[] samples) {
-        if (samples.length == 0) {
+    private static float median(float[] samples, int n) {
+        if (n == 0) {
             return Float.NaN;
         }
 
-        // Sort into ascending order
-        Arrays.sort(samples);
-
         // Get median value
-        final int n = samples.length;
         float median = Float.NaN;
 
         if (n == 1) {
@@ -0,0 +1,291 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import dm.Source;
+
+/**
+ * Reader for single-file catalogues of {@link Source}s partitioned by device, i.e. by FOV, CCD row and
+ * AF strip, as written by the {@link PartitionedSourceWriter}. This is an alternative to writing a separate
+ * file for each device with the {@link ShardedSourceWriter}: the {@link Source}s for each device are stored
+ * contiguously, and a partition directory in the file header gives the location of each device, so that
+ * a single device can be read with one seek and all devices can be read in one sequential pass.
+ *
+ * File layout (all values big-endian):
+ *
+ *  - Header ({@link #HEADER_BYTES} bytes): magic number, format version, number of partitions (4 bytes each).
+ *  - Partition directory ({@link #DIRECTORY_ENTRY_BYTES} bytes per partition): FOV, CCD row, CCD strip
+ *    (1 byte each), byte offset of the partition in the file and number of {@link Source}s (8 bytes each).
+ *  - Partitions: the {@link Source}s for each device in the binary format produced by
+ *    {@link Source#toByteArray()}, in the same order as the directory.
+ *
+ * Note that only the encoded fields of each {@link Source} are restored; see {@link Source#fromByteBuffer}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class PartitionedSourceCatalogue {
+
+	/**
+	 * Magic number identifying a device-partitioned {@link Source} catalogue ("GSPC").
+	 */
+	public static final int MAGIC = 0x47535043;
+
+	/**
+	 * The version of the format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The size of the fixed part of the file header [bytes].
+	 */
+	public static final int HEADER_BYTES = 12;
+
+	/**
+	 * The size of each entry in the partition directory [bytes].
+	 */
+	public static final int DIRECTORY_ENTRY_BYTES = 19;
+
+	/**
+	 * The extension used for device-partitioned {@link Source} catalogues.
+	 */
+	public static final String EXTENSION = ".psc";
+
+	/**
+	 * The catalogue {@link File}.
+	 */
+	private final File file;
+
+	/**
+	 * For each partition, the FOV.
+	 */
+	private final byte[] fov;
+
+	/**
+	 * For each partition, the CCD row.
+	 */
+	private final byte[] row;
+
+	/**
+	 * For each partition, the CCD strip.
+	 */
+	private final byte[] strip;
+
+	/**
+	 * For each partition, the byte offset in the file.
+	 */
+	private final long[] offset;
+
+	/**
+	 * For each partition, the number of {@link Source}s.
+	 */
+	private final long[] count;
+
+	/**
+	 * Main constructor for the {@link PartitionedSourceCatalogue}. Reads the partition directory.
+	 *
+	 * @param file
+	 * 	The catalogue {@link File}.
+	 * @throws IOException
+	 * 	If there's an exception reading the file, or if it's not a device-partitioned {@link Source} catalogue.
+	 */
+	public PartitionedSourceCatalogue(File file) throws IOException {
+
+		this.file = file;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel channel = raf.getChannel()) {
+
+			ByteBuffer header = read(channel, 0, HEADER_BYTES);
+			if(header.getInt() != MAGIC) {
+				throw new IOException("File " + file.getName() + " is not a partitioned Source catalogue");
+			}
+			int version = header.getInt();
+			if(version != VERSION) {
+				throw new IOException("Unsupported version " + version + " of file " + file.getName());
+			}
+			int n = header.getInt();
+
+			ByteBuffer directory = read(channel, HEADER_BYTES, n * DIRECTORY_ENTRY_BYTES);
+			fov = new byte[n];
+			row = new byte[n];
+			strip = new byte[n];
+			offset = new long[n];
+			count = new long[n];
+			for(int p=0; p<n; p++) {
+				fov[p] = directory.get();
+				row[p] = directory.get();
+				strip[p] = directory.get();
+				offset[p] = directory.getLong();
+				count[p] = directory.getLong();
+			}
+		}
+	}
+
+	/**
+	 * Reads the given range of bytes from the {@link FileChannel}.
+	 *
+	 * @param channel
+	 * 	The {@link FileChannel} to read.
+	 * @param position
+	 * 	The byte offset in the file to start reading from.
+	 * @param length
+	 * 	The number of bytes to read.
+	 * @return
+	 * 	A {@link ByteBuffer} containing the bytes read, with position zero.
+	 * @throws IOException
+	 * 	If there's an exception reading the file or the file is truncated.
+	 */
+	private ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Truncated file " + file.getName());
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Get the number of partitions (devices) in the catalogue.
+	 * @return
+	 * 	The number of partitions in the catalogue.
+	 */
+	public int getPartitionCount() {
+		return fov.length;
+	}
+
+	/**
+	 * Get the FOV of the given partition.
+	 * @param partition
+	 * 	The index of the partition.
+	 * @return
+	 * 	The FOV (0 or 1).
+	 */
+	public byte getFov(int partition) {
+		return fov[partition];
+	}
+
+	/**
+	 * Get the CCD row of the given partition.
+	 * @param partition
+	 * 	The index of the partition.
+	 * @return
+	 * 	The CCD row (1-7).
+	 */
+	public byte getRow(int partition) {
+		return row[partition];
+	}
+
+	/**
+	 * Get the CCD strip of the given partition.
+	 * @param partition
+	 * 	The index of the partition.
+	 * @return
+	 * 	The CCD strip (5-12, AF2-AF9).
+	 */
+	public byte getStrip(int partition) {
+		return strip[partition];
+	}
+
+	/**
+	 * Get the number of {@link Source}s in the given partition.
+	 * @param partition
+	 * 	The index of the partition.
+	 * @return
+	 * 	The number of {@link Source}s in the partition.
+	 */
+	public long getSourceCount(int partition) {
+		return count[partition];
+	}
+
+	/**
+	 * Get the total number of {@link Source}s in the catalogue.
+	 * @return
+	 * 	The total number of {@link Source}s in the catalogue.
+	 */
+	public long getSourceCount() {
+		long total = 0;
+		for(long n : count) {
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Finds the partition containing the {@link Source}s for the given device.
+	 *
+	 * @param fov
+	 * 	The FOV (0 or 1).
+	 * @param row
+	 * 	The CCD row (1-7).
+	 * @param strip
+	 * 	The CCD strip (5-12, AF2-AF9).
+	 * @return
+	 * 	The index of the partition, or -1 if the catalogue has no partition for the device.
+	 */
+	public int findPartition(byte fov, byte row, byte strip) {
+		for(int p=0; p<this.fov.length; p++) {
+			if(this.fov[p] == fov && this.row[p] == row && this.strip[p] == strip) {
+				return p;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Opens a {@link SourceReader} on the {@link Source}s in the given partition.
+	 *
+	 * @param partition
+	 * 	The index of the partition.
+	 * @return
+	 * 	A {@link SourceReader} on the {@link Source}s in the partition.
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public SourceReader openPartition(int partition) throws IOException {
+		return new SourceReader(file, offset[partition], count[partition] * Source.ENCODED_BYTES,
+				SourceReader.DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Opens a {@link SourceReader} on all the {@link Source}s in the catalogue, which are read in one
+	 * sequential pass in partition order; use {@link #getSourceCount(int)} to locate the partition boundaries.
+	 *
+	 * @return
+	 * 	A {@link SourceReader} on all the {@link Source}s in the catalogue.
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public SourceReader openAll() throws IOException {
+		long start = HEADER_BYTES + (long)fov.length * DIRECTORY_ENTRY_BYTES;
+		return new SourceReader(file, start, getSourceCount() * Source.ENCODED_BYTES, SourceReader.DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Reads all the {@link Source}s in the given partition.
+	 *
+	 * @param partition
+	 * 	The index of the partition.
+	 * @return
+	 * 	The {@link Source}s in the partition.
+	 * @throws IOException
+	 * 	If there's an exception reading the file.
+	 */
+	public List<Source> readPartition(int partition) throws IOException {
+		List<Source> sources = new ArrayList<>((int)Math.min(count[partition], Integer.MAX_VALUE));
+		try (SourceReader in = openPartition(partition)) {
+			while(in.hasNext()) {
+				sources.add(in.next());
+			}
+		}
+		return sources;
+	}
+}
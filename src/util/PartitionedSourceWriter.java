@@ -0,0 +1,202 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import dm.Source;
+
+/**
+ * Writer for single-file catalogues of {@link Source}s partitioned by device; see
+ * {@link PartitionedSourceCatalogue} for the file layout.
+ *
+ * The {@link Source}s are buffered per device as by the {@link ShardedSourceWriter}, but when a device is
+ * flushed its buffers are appended to a single spill file alongside the output, recording the location of
+ * each segment. When the writer is closed the segments for each device are copied from the spill file into
+ * a contiguous partition of the catalogue and the spill file is deleted.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class PartitionedSourceWriter extends ShardedSourceWriter {
+
+	/**
+	 * The catalogue {@link File} to write.
+	 */
+	private final File outputFile;
+
+	/**
+	 * The spill {@link File} that the device buffers are appended to until the writer is closed.
+	 */
+	private final File spillFile;
+
+	/**
+	 * The {@link RandomAccessFile} on the spill file.
+	 */
+	private final RandomAccessFile spillRaf;
+
+	/**
+	 * The {@link FileChannel} on the spill file.
+	 */
+	private final FileChannel spill;
+
+	/**
+	 * For each device, the byte offset and length in the spill file of each segment written so far, stored
+	 * as consecutive pairs.
+	 */
+	private final long[][] segments = new long[N_SHARDS][];
+
+	/**
+	 * For each device, the number of segments written so far.
+	 */
+	private final int[] nSegments = new int[N_SHARDS];
+
+	/**
+	 * For each device, the total number of bytes written so far.
+	 */
+	private final long[] shardBytes = new long[N_SHARDS];
+
+	/**
+	 * Constructor for the {@link PartitionedSourceWriter} using the default memory budget.
+	 *
+	 * @param outputFile
+	 * 	The catalogue {@link File} to write.
+	 * @throws IOException
+	 * 	If there's an exception creating the spill file.
+	 */
+	public PartitionedSourceWriter(File outputFile) throws IOException {
+		this(outputFile, DEFAULT_BUDGET_BYTES);
+	}
+
+	/**
+	 * Main constructor for the {@link PartitionedSourceWriter}.
+	 *
+	 * @param outputFile
+	 * 	The catalogue {@link File} to write.
+	 * @param budgetBytes
+	 * 	The memory budget for the buffered {@link Source}s [bytes].
+	 * @throws IOException
+	 * 	If there's an exception creating the spill file.
+	 */
+	public PartitionedSourceWriter(File outputFile, long budgetBytes) throws IOException {
+		super(budgetBytes);
+		this.outputFile = outputFile;
+		spillFile = new File(outputFile.getPath() + ".spill");
+		spillRaf = new RandomAccessFile(spillFile, "rw");
+		spillRaf.setLength(0);
+		spill = spillRaf.getChannel();
+		for(int s=0; s<N_SHARDS; s++) {
+			segments[s] = new long[16];
+		}
+	}
+
+	/**
+	 * Appends the contents of the buffers for the given device to the spill file, and records the location
+	 * of the segment.
+	 *
+	 * @param shard
+	 * 	The index of the device.
+	 * @param buffers
+	 * 	The buffers to write, each ready for reading.
+	 * @param length
+	 * 	The total number of bytes remaining in the buffers.
+	 * @throws IOException
+	 * 	If there's an exception writing to the spill file.
+	 */
+	@Override
+	protected void writeShard(int shard, ByteBuffer[] buffers, long length) throws IOException {
+		long position = spill.position();
+		long remaining = length;
+		while(remaining > 0) {
+			remaining -= spill.write(buffers);
+		}
+		int n = nSegments[shard];
+		if(2 * n + 2 > segments[shard].length) {
+			segments[shard] = Arrays.copyOf(segments[shard], 2 * segments[shard].length);
+		}
+		segments[shard][2 * n] = position;
+		segments[shard][2 * n + 1] = length;
+		nSegments[shard]++;
+		shardBytes[shard] += length;
+	}
+
+	/**
+	 * Writes any buffered {@link Source}s to the spill file, then writes the catalogue by copying the segments
+	 * for each device from the spill file into a contiguous partition, and deletes the spill file.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing the catalogue.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			super.close();
+			writeCatalogue();
+		}
+		finally {
+			spill.close();
+			spillRaf.close();
+			spillFile.delete();
+		}
+	}
+
+	/**
+	 * Writes the header, partition directory and partitions of the catalogue.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing the catalogue.
+	 */
+	private void writeCatalogue() throws IOException {
+
+		int nPartitions = 0;
+		for(int s=0; s<N_SHARDS; s++) {
+			if(isDevice(s)) {
+				nPartitions++;
+			}
+		}
+
+		int headerBytes = PartitionedSourceCatalogue.HEADER_BYTES + nPartitions * PartitionedSourceCatalogue.DIRECTORY_ENTRY_BYTES;
+		ByteBuffer header = ByteBuffer.allocate(headerBytes);
+		header.putInt(PartitionedSourceCatalogue.MAGIC);
+		header.putInt(PartitionedSourceCatalogue.VERSION);
+		header.putInt(nPartitions);
+
+		long position = headerBytes;
+		for(int s=0; s<N_SHARDS; s++) {
+			if(!isDevice(s)) {
+				continue;
+			}
+			header.put(getFov(s));
+			header.put(getRow(s));
+			header.put(getStrip(s));
+			header.putLong(position);
+			header.putLong(shardBytes[s] / Source.ENCODED_BYTES);
+			position += shardBytes[s];
+		}
+		header.flip();
+
+		try (RandomAccessFile raf = new RandomAccessFile(outputFile, "rw");
+			 FileChannel out = raf.getChannel()) {
+
+			raf.setLength(0);
+			while(header.hasRemaining()) {
+				out.write(header);
+			}
+
+			for(int s=0; s<N_SHARDS; s++) {
+				for(int i=0; i<nSegments[s]; i++) {
+					long segPosition = segments[s][2 * i];
+					long segLength = segments[s][2 * i + 1];
+					while(segLength > 0) {
+						long n = spill.transferTo(segPosition, segLength, out);
+						segPosition += n;
+						segLength -= n;
+					}
+				}
+			}
+		}
+	}
+}
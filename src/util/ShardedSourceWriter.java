@@ -0,0 +1,385 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import dm.Source;
+
+/**
+ * Writer that splits binary {@link Source} records (see {@link Source#toByteArray()}) between one file per
+ * device, i.e. per FOV, CCD row and AF strip. The files are named Source_FOV{1,2}_ROW{1-7}_AF{2-9}.dat.
+ * Only strips 5-12 (AF2-AF9) are supported: {@link Source}s from AF1 (strip 4) are rejected with an
+ * {@link IllegalArgumentException}.
+ *
+ * Rather than writing each {@link Source} to its file as soon as it's received, the records are encoded
+ * into fixed-size direct buffers ('chunks') drawn from a shared pool, with each device accumulating a
+ * queue of chunks. The size of the pool sets the memory budget of the writer: when it is exhausted, the
+ * device holding the most chunks is flushed to its file with a single gathering write through its
+ * {@link FileChannel}, and its chunks are returned to the pool. The number of write calls is therefore
+ * roughly the total data volume divided by the memory budget, rather than one per {@link dm.Window}.
+ *
+ * All methods are synchronized, so several threads may write {@link Source}s concurrently.
+ *
+ * See {@link PartitionedSourceWriter} for a variant that writes a single file partitioned by device.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class ShardedSourceWriter implements Closeable {
+
+	/**
+	 * The default memory budget for the buffered {@link Source}s [bytes].
+	 */
+	public static final long DEFAULT_BUDGET_BYTES = 16L << 20;
+
+	/**
+	 * The size of each chunk of the buffer pool; chosen to hold a whole number of {@link Source} records.
+	 */
+	static final int CHUNK_BYTES = 1150 * Source.ENCODED_BYTES;
+
+	/**
+	 * The number of FOVs.
+	 */
+	private static final int N_FOV = 2;
+
+	/**
+	 * The number of CCD rows; rows are numbered from 1.
+	 */
+	private static final int N_ROW = 7;
+
+	/**
+	 * The strip number of the first AF CCD handled (AF2); AF1 (strip 4) is not supported.
+	 */
+	private static final int FIRST_AF_STRIP = 5;
+
+	/**
+	 * The number of AF CCD strips handled (strips 5-12, AF2-AF9).
+	 */
+	private static final int N_AF = 8;
+
+	/**
+	 * The total number of device slots, including the nonexistant ROW4 AF9.
+	 */
+	static final int N_SHARDS = N_FOV * N_ROW * N_AF;
+
+	/**
+	 * The {@link FileChannel} for each device, indexed by {@link #getShard(byte, byte, byte)}; null for
+	 * devices that don't exist, and null altogether if a subclass handles the output.
+	 */
+	private FileChannel[] channels;
+
+	/**
+	 * The queue of filled or partially filled chunks for each device.
+	 */
+	private final List<Deque<ByteBuffer>> shardChunks;
+
+	/**
+	 * The pool of empty chunks.
+	 */
+	private final Deque<ByteBuffer> pool = new ArrayDeque<>();
+
+	/**
+	 * Number of flushes performed, for diagnostics.
+	 */
+	private long nFlushes = 0;
+
+	/**
+	 * Constructor for the {@link ShardedSourceWriter} using the default memory budget.
+	 *
+	 * @param outputDir
+	 * 	The directory in which to create the file for each device.
+	 * @throws IOException
+	 * 	If there's an exception creating the files.
+	 */
+	public ShardedSourceWriter(File outputDir) throws IOException {
+		this(outputDir, DEFAULT_BUDGET_BYTES);
+	}
+
+	/**
+	 * Main constructor for the {@link ShardedSourceWriter}. A file is created for each device.
+	 *
+	 * @param outputDir
+	 * 	The directory in which to create the file for each device.
+	 * @param budgetBytes
+	 * 	The memory budget for the buffered {@link Source}s [bytes]. This is rounded up to a whole number of
+	 * chunks, with a minimum of one chunk.
+	 * @throws IOException
+	 * 	If there's an exception creating the files.
+	 */
+	public ShardedSourceWriter(File outputDir, long budgetBytes) throws IOException {
+
+		this(budgetBytes);
+
+		channels = new FileChannel[N_SHARDS];
+		try {
+			for(int shard=0; shard<N_SHARDS; shard++) {
+				if(isDevice(shard)) {
+					File file = new File(outputDir, getDeviceFileName(shard));
+					channels[shard] = new FileOutputStream(file).getChannel();
+				}
+			}
+		}
+		catch(IOException e) {
+			closeChannels();
+			throw e;
+		}
+	}
+
+	/**
+	 * Constructor for subclasses that direct the output of each device somewhere other than its own file,
+	 * by overriding {@link #writeShard(int, ByteBuffer[], long)}. Sets up the buffer pool only.
+	 *
+	 * @param budgetBytes
+	 * 	The memory budget for the buffered {@link Source}s [bytes].
+	 */
+	protected ShardedSourceWriter(long budgetBytes) {
+
+		shardChunks = new ArrayList<>(N_SHARDS);
+		for(int s=0; s<N_SHARDS; s++) {
+			shardChunks.add(new ArrayDeque<ByteBuffer>());
+		}
+
+		long nChunks = Math.max(1, (budgetBytes + CHUNK_BYTES - 1) / CHUNK_BYTES);
+		for(long c=0; c<nChunks; c++) {
+			pool.add(ByteBuffer.allocateDirect(CHUNK_BYTES));
+		}
+	}
+
+	/**
+	 * Computes the index of the given device in the per-device arrays.
+	 *
+	 * @param fov
+	 * 	The FOV (0 or 1).
+	 * @param row
+	 * 	The CCD row (1-7).
+	 * @param strip
+	 * 	The CCD strip (5-12, AF2-AF9).
+	 * @return
+	 * 	The index of the device, or -1 if the device is out of range.
+	 */
+	static int getShard(byte fov, byte row, byte strip) {
+		if(fov < 0 || fov >= N_FOV || row < 1 || row > N_ROW || strip < FIRST_AF_STRIP || strip >= FIRST_AF_STRIP + N_AF) {
+			return -1;
+		}
+		return (fov * N_ROW + (row - 1)) * N_AF + (strip - FIRST_AF_STRIP);
+	}
+
+	/**
+	 * Get the FOV of the given device.
+	 * @param shard
+	 * 	The index of the device.
+	 * @return
+	 * 	The FOV (0 or 1).
+	 */
+	static byte getFov(int shard) {
+		return (byte)(shard / (N_ROW * N_AF));
+	}
+
+	/**
+	 * Get the CCD row of the given device.
+	 * @param shard
+	 * 	The index of the device.
+	 * @return
+	 * 	The CCD row (1-7).
+	 */
+	static byte getRow(int shard) {
+		return (byte)(1 + (shard / N_AF) % N_ROW);
+	}
+
+	/**
+	 * Get the CCD strip of the given device.
+	 * @param shard
+	 * 	The index of the device.
+	 * @return
+	 * 	The CCD strip (5-12, AF2-AF9).
+	 */
+	static byte getStrip(int shard) {
+		return (byte)(FIRST_AF_STRIP + shard % N_AF);
+	}
+
+	/**
+	 * Determines whether the given device exists.
+	 * @param shard
+	 * 	The index of the device.
+	 * @return
+	 * 	True if the device exists; false for the nonexistant ROW4 AF9.
+	 */
+	static boolean isDevice(int shard) {
+		return !(getRow(shard) == 4 && getStrip(shard) == 12);
+	}
+
+	/**
+	 * Get the name of the file used for the given device.
+	 * @param shard
+	 * 	The index of the device.
+	 * @return
+	 * 	The name of the file used for the device.
+	 */
+	static String getDeviceFileName(int shard) {
+		return String.format("Source_FOV%d_ROW%d_AF%d.dat", getFov(shard) + 1, getRow(shard), getStrip(shard) - 3);
+	}
+
+	/**
+	 * Writes the {@link Source}s to the file for the given device.
+	 *
+	 * @param fov
+	 * 	The FOV (0 or 1).
+	 * @param row
+	 * 	The CCD row (1-7).
+	 * @param strip
+	 * 	The CCD strip (5-12, AF2-AF9).
+	 * @param sources
+	 * 	The {@link Source}s to write.
+	 * @throws IOException
+	 * 	If there's an exception writing to the files.
+	 * @throws IllegalArgumentException
+	 * 	If the device doesn't exist or isn't supported, including any AF1 (strip 4) device.
+	 */
+	public synchronized void write(byte fov, byte row, byte strip, List<Source> sources) throws IOException {
+		int shard = getShard(fov, row, strip);
+		if(shard < 0 || !isDevice(shard)) {
+			throw new IllegalArgumentException("No such device: FOV " + fov + ", row " + row + ", strip " + strip);
+		}
+		Deque<ByteBuffer> chunks = shardChunks.get(shard);
+		for(Source source : sources) {
+			ByteBuffer chunk = chunks.peekLast();
+			if(chunk == null || chunk.remaining() < Source.ENCODED_BYTES) {
+				chunk = takeChunk();
+				chunks.addLast(chunk);
+			}
+			source.toByteBuffer(chunk);
+		}
+	}
+
+	/**
+	 * Takes an empty chunk from the pool, first flushing the device with the most chunks if the pool
+	 * is empty.
+	 *
+	 * @return
+	 * 	An empty chunk.
+	 * @throws IOException
+	 * 	If there's an exception writing to the files.
+	 */
+	private ByteBuffer takeChunk() throws IOException {
+		if(pool.isEmpty()) {
+			int largest = 0;
+			for(int s=1; s<shardChunks.size(); s++) {
+				if(shardChunks.get(s).size() > shardChunks.get(largest).size()) {
+					largest = s;
+				}
+			}
+			flush(largest);
+		}
+		return pool.removeFirst();
+	}
+
+	/**
+	 * Writes all the chunks for the given device to its file with a single gathering write, and returns
+	 * them to the pool.
+	 *
+	 * @param shard
+	 * 	The index of the device.
+	 * @throws IOException
+	 * 	If there's an exception writing to the file.
+	 */
+	private void flush(int shard) throws IOException {
+		Deque<ByteBuffer> chunks = shardChunks.get(shard);
+		if(chunks.isEmpty()) {
+			return;
+		}
+		ByteBuffer[] buffers = chunks.toArray(new ByteBuffer[chunks.size()]);
+		long remaining = 0;
+		for(ByteBuffer buffer : buffers) {
+			buffer.flip();
+			remaining += buffer.remaining();
+		}
+		writeShard(shard, buffers, remaining);
+		for(ByteBuffer buffer : buffers) {
+			buffer.clear();
+			pool.addLast(buffer);
+		}
+		chunks.clear();
+		nFlushes++;
+	}
+
+	/**
+	 * Writes the contents of the buffers for the given device to its file, with a single gathering write.
+	 *
+	 * @param shard
+	 * 	The index of the device.
+	 * @param buffers
+	 * 	The buffers to write, each ready for reading.
+	 * @param length
+	 * 	The total number of bytes remaining in the buffers.
+	 * @throws IOException
+	 * 	If there's an exception writing to the file.
+	 */
+	protected void writeShard(int shard, ByteBuffer[] buffers, long length) throws IOException {
+		while(length > 0) {
+			length -= channels[shard].write(buffers);
+		}
+	}
+
+	/**
+	 * Writes all buffered {@link Source}s to their files.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing to the files.
+	 */
+	public synchronized void flush() throws IOException {
+		for(int s=0; s<shardChunks.size(); s++) {
+			flush(s);
+		}
+	}
+
+	/**
+	 * Get the number of writes to the device files made so far.
+	 * @return
+	 * 	The number of writes to the device files made so far.
+	 */
+	public synchronized long getFlushCount() {
+		return nFlushes;
+	}
+
+	/**
+	 * Closes the {@link FileChannel} for each device, ignoring any exceptions.
+	 */
+	private void closeChannels() {
+		if(channels == null) {
+			return;
+		}
+		for(FileChannel channel : channels) {
+			if(channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Nothing more can be done
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes all buffered {@link Source}s to their files, then closes the files.
+	 *
+	 * @throws IOException
+	 * 	If there's an exception writing to the files.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			closeChannels();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import dm.Source;
+
+/**
+ * Streaming reader for binary files of {@link Source}s, as written by {@link Source#toByteArray()} (e.g. the
+ * outputs of {@link exec.ProcessWindows} and {@link exec.WriteSourcesToBinaryFile}). The file is read through
+ * a {@link FileChannel} into a fixed-size buffer and the {@link Source}s are decoded one at a time as the
+ * reader is iterated.
+ *
+ * The reader can also be restricted to a contiguous range of records within a larger file, such as a
+ * single device partition of a {@link PartitionedSourceCatalogue}.
+ *
+ * Note that only the encoded fields of each {@link Source} are restored; see {@link Source#fromByteBuffer}.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class SourceReader implements Iterator<Source>, Closeable {
+
+	/**
+	 * The default size of the read buffer [bytes].
+	 */
+	public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+	/**
+	 * The {@link RandomAccessFile} being read.
+	 */
+	private final RandomAccessFile raf;
+
+	/**
+	 * The {@link FileChannel} on the file being read.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The name of the file, for error messages.
+	 */
+	private final String name;
+
+	/**
+	 * Buffer for the data read from the file. Between reads it is in the state set by {@link ByteBuffer#flip()},
+	 * i.e. the remaining bytes are the ones that have been read from the file but not yet decoded.
+	 */
+	private final ByteBuffer buffer;
+
+	/**
+	 * The byte offset in the file at which to stop reading.
+	 */
+	private final long end;
+
+	/**
+	 * Constructor for the {@link SourceReader} that uses a read buffer of the default size.
+	 *
+	 * @param file
+	 * 	The {@link File} to read.
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public SourceReader(File file) throws IOException {
+		this(file, DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Main constructor for the {@link SourceReader}.
+	 *
+	 * @param file
+	 * 	The {@link File} to read.
+	 * @param bufferBytes
+	 * 	The size of the read buffer [bytes].
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public SourceReader(File file, int bufferBytes) throws IOException {
+		this(file, 0L, Long.MAX_VALUE, bufferBytes);
+	}
+
+	/**
+	 * Constructor for the {@link SourceReader} that reads only the given range of the file.
+	 *
+	 * @param file
+	 * 	The {@link File} to read.
+	 * @param offset
+	 * 	The byte offset in the file of the first {@link Source} to read.
+	 * @param length
+	 * 	The number of bytes to read; should be a multiple of {@link Source#ENCODED_BYTES}.
+	 * @param bufferBytes
+	 * 	The size of the read buffer [bytes].
+	 * @throws IOException
+	 * 	If there's an exception opening the file.
+	 */
+	public SourceReader(File file, long offset, long length, int bufferBytes) throws IOException {
+		raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		name = file.getName();
+		end = length > Long.MAX_VALUE - offset ? Long.MAX_VALUE : offset + length;
+		channel.position(offset);
+		buffer = ByteBuffer.allocateDirect(Math.max(bufferBytes, Source.ENCODED_BYTES));
+		buffer.flip();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean hasNext() {
+		if(buffer.remaining() >= Source.ENCODED_BYTES) {
+			return true;
+		}
+		try {
+			buffer.compact();
+			long available = end - channel.position();
+			if(available < buffer.remaining()) {
+				buffer.limit(buffer.position() + (int)Math.max(available, 0));
+			}
+			while(buffer.position() < Source.ENCODED_BYTES && buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if(buffer.remaining() >= Source.ENCODED_BYTES) {
+			return true;
+		}
+		if(buffer.hasRemaining()) {
+			throw new UncheckedIOException(new IOException("Truncated Source record in file " + name));
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Source next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Source source = Source.fromByteBuffer(buffer, buffer.position());
+		buffer.position(buffer.position() + Source.ENCODED_BYTES);
+		return source;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		raf.close();
+	}
+}
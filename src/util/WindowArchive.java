@@ -0,0 +1,260 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import dm.Window;
+
+/**
+ * Read-only random access view of a binary file of {@link Window}s, as written by
+ * {@link exec.WriteWindowsToBinaryFile}. The file is memory-mapped using {@link FileChannel#map} and
+ * each {@link Window} is decoded in place from the {@link MappedByteBuffer} when it is requested, so
+ * the file contents are never copied onto the heap. Only the byte offset of each record is held in
+ * memory.
+ *
+ * Files larger than the maximum size of a single mapping (2GB) are split into several mapped segments,
+ * with the segment boundaries aligned on record boundaries so that no {@link Window} spans two segments.
+ *
+ * Note that each call to {@link #get(int)} decodes a new {@link Window} instance.
+ *
+ * The record offsets found when the file is opened also allow the file to be split into contiguous ranges
+ * of records without any further scanning, so that a single large file can be decoded on several cores
+ * using {@link #decodeAll(ForkJoinPool)}; the {@link Window}s are returned in file order.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class WindowArchive extends AbstractList<Window> implements RandomAccess {
+
+	/**
+	 * The maximum size of a single mapped segment of the file [bytes].
+	 */
+	private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+	/**
+	 * The minimum number of records decoded by a single task in {@link #decodeRange(int, int, ForkJoinPool)};
+	 * ranges smaller than this are not split further.
+	 */
+	private static final int MIN_RECORDS_PER_TASK = 256;
+
+	/**
+	 * The mapped segments of the file.
+	 */
+	private final MappedByteBuffer[] segments;
+
+	/**
+	 * For each record, the index of the segment in {@link #segments} that contains it.
+	 */
+	private final int[] recordSegment;
+
+	/**
+	 * For each record, the position of the first byte within the segment that contains it.
+	 */
+	private final int[] recordPosition;
+
+	/**
+	 * The number of {@link Window}s in the file.
+	 */
+	private final int size;
+
+	/**
+	 * Main constructor for the {@link WindowArchive}. Maps the file and scans the record headers
+	 * to locate the start of each {@link Window}.
+	 *
+	 * @param file
+	 * 	The binary {@link File} containing the {@link Window}s.
+	 * @throws IOException
+	 * 	If there's an exception mapping the file, or if the file is truncated or corrupt.
+	 */
+	public WindowArchive(File file) throws IOException {
+
+		List<MappedByteBuffer> segmentList = new ArrayList<>();
+		int[] segIdx = new int[1024];
+		int[] segPos = new int[1024];
+		int n = 0;
+
+		// The mappings remain valid after the channel is closed
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel channel = raf.getChannel()) {
+
+			long fileSize = channel.size();
+
+			// Byte offset in the file of the start of the current segment
+			long segStart = 0;
+
+			while(segStart < fileSize) {
+
+				long segLength = Math.min(MAX_SEGMENT_BYTES, fileSize - segStart);
+				MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, segStart, segLength);
+
+				// Scan the headers to find the start of each complete record in this segment
+				int pos = 0;
+				while(pos + Window.HEADER_BYTES <= segLength) {
+
+					int length = Window.getEncodedLength(segment, pos);
+					if(length < Window.HEADER_BYTES || pos + (long)length > segLength) {
+						// Record either is corrupt or continues into the next segment
+						break;
+					}
+
+					if(n == segIdx.length) {
+						segIdx = Arrays.copyOf(segIdx, 2 * n);
+						segPos = Arrays.copyOf(segPos, 2 * n);
+					}
+					segIdx[n] = segmentList.size();
+					segPos[n] = pos;
+					n++;
+					pos += length;
+				}
+
+				if(pos == 0) {
+					throw new IOException("Truncated or corrupt Window record at byte " + segStart
+							+ " of file " + file.getName());
+				}
+
+				segmentList.add(segment);
+				segStart += pos;
+			}
+		}
+
+		this.segments = segmentList.toArray(new MappedByteBuffer[segmentList.size()]);
+		this.recordSegment = Arrays.copyOf(segIdx, n);
+		this.recordPosition = Arrays.copyOf(segPos, n);
+		this.size = n;
+	}
+
+	/**
+	 * Decodes the {@link Window} at the given position in the file.
+	 *
+	 * @param index
+	 * 	The index of the {@link Window} in the file.
+	 * @return
+	 * 	The {@link Window} at the given position in the file.
+	 */
+	@Override
+	public Window get(int index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return Window.fromByteBuffer(segments[recordSegment[index]], recordPosition[index]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Decodes all the {@link Window}s in the file, splitting the file into contiguous ranges of records that
+	 * are decoded in parallel on the {@link ForkJoinPool}.
+	 *
+	 * @param pool
+	 * 	The {@link ForkJoinPool} used to decode the {@link Window}s.
+	 * @return
+	 * 	All the {@link Window}s in the file, in file order.
+	 */
+	public Window[] decodeAll(ForkJoinPool pool) {
+		return decodeRange(0, size, pool);
+	}
+
+	/**
+	 * Decodes the given range of {@link Window}s, splitting it into contiguous ranges of records that are
+	 * decoded in parallel on the {@link ForkJoinPool}.
+	 *
+	 * @param from
+	 * 	The index of the first {@link Window} to decode (inclusive).
+	 * @param to
+	 * 	The index of the last {@link Window} to decode (exclusive).
+	 * @param pool
+	 * 	The {@link ForkJoinPool} used to decode the {@link Window}s.
+	 * @return
+	 * 	The {@link Window}s in the range, in file order.
+	 */
+	public Window[] decodeRange(int from, int to, ForkJoinPool pool) {
+		if(from < 0 || to > size || from > to) {
+			throw new IndexOutOfBoundsException("Range: [" + from + ", " + to + "), Size: " + size);
+		}
+		Window[] windows = new Window[to - from];
+		pool.invoke(new DecodeTask(windows, from, from, to));
+		return windows;
+	}
+
+	/**
+	 * Task that decodes a contiguous range of records into the corresponding elements of the output array,
+	 * splitting the range in two and decoding the halves in parallel while it is larger than
+	 * {@link WindowArchive#MIN_RECORDS_PER_TASK}.
+	 */
+	private class DecodeTask extends RecursiveAction {
+
+		/**
+		 * The serial version UID.
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The output array of {@link Window}s.
+		 */
+		private final Window[] windows;
+
+		/**
+		 * The index of the record stored in the first element of {@link #windows}.
+		 */
+		private final int offset;
+
+		/**
+		 * The index of the first record to decode (inclusive).
+		 */
+		private final int from;
+
+		/**
+		 * The index of the last record to decode (exclusive).
+		 */
+		private final int to;
+
+		/**
+		 * Main constructor for the {@link DecodeTask}.
+		 * @param windows
+		 * 	The output array of {@link Window}s.
+		 * @param offset
+		 * 	The index of the record stored in the first element of the output array.
+		 * @param from
+		 * 	The index of the first record to decode (inclusive).
+		 * @param to
+		 * 	The index of the last record to decode (exclusive).
+		 */
+		DecodeTask(Window[] windows, int offset, int from, int to) {
+			this.windows = windows;
+			this.offset = offset;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected void compute() {
+			if(to - from <= MIN_RECORDS_PER_TASK) {
+				for(int i=from; i<to; i++) {
+					windows[i - offset] = Window.fromByteBuffer(segments[recordSegment[i]], recordPosition[i]);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new DecodeTask(windows, offset, from, mid), new DecodeTask(windows, offset, mid, to));
+		}
+	}
+}
@@ -0,0 +1,535 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import dm.Window;
+
+/**
+ * Index for a binary file of {@link Window}s, that maps the transit ID, the device (FOV, CCD row and strip)
+ * and the observation time of each record to its byte offset in the file. This allows applications to seek
+ * straight to the {@link Window}s for a given transit or device, e.g. using a {@link WindowArchive}, without
+ * decoding every record in the file.
+ *
+ * The index is stored in a sidecar file alongside the data file (see {@link #getIndexFile(File)}), so that the
+ * data file format is unchanged. The index file layout is:
+ *
+ *  - Header: magic number (4 bytes), format version (4 bytes), length of the data file (8 bytes), number of
+ *    records N (4 bytes)
+ *  - N entries, one per record in file order: byte offset (8 bytes), transit ID (8 bytes), OBMT (8 bytes),
+ *    FOV (1 byte), CCD row (1 byte), CCD strip (1 byte)
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public class WindowIndex {
+
+	/**
+	 * Magic number identifying a {@link WindowIndex} file ("GSWI").
+	 */
+	public static final int MAGIC = 0x47535749;
+
+	/**
+	 * The version of the format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The extension appended to the data file name to get the index file name.
+	 */
+	public static final String EXTENSION = ".idx";
+
+	/**
+	 * Size of the index file header [bytes].
+	 */
+	private static final int HEADER_BYTES = 20;
+
+	/**
+	 * Size of each entry in the index file [bytes].
+	 */
+	private static final int ENTRY_BYTES = 27;
+
+	/**
+	 * The length of the data file at the time it was indexed [bytes]; used to detect stale index files.
+	 */
+	private final long dataLength;
+
+	/**
+	 * The byte offset of each record in the data file.
+	 */
+	private final long[] offsets;
+
+	/**
+	 * The transit ID of each record.
+	 */
+	private final long[] transitIds;
+
+	/**
+	 * The observation time of each record [rev].
+	 */
+	private final double[] obmtRevs;
+
+	/**
+	 * The FOV of each record.
+	 */
+	private final byte[] fovs;
+
+	/**
+	 * The CCD row of each record.
+	 */
+	private final byte[] rows;
+
+	/**
+	 * The CCD strip of each record.
+	 */
+	private final byte[] strips;
+
+	/**
+	 * Lookup of records by transit ID.
+	 */
+	private final KeyIndex transitIndex;
+
+	/**
+	 * Lookup of records by device.
+	 */
+	private final KeyIndex deviceIndex;
+
+	/**
+	 * Lookup of records by observation time.
+	 */
+	private final KeyIndex obmtIndex;
+
+	/**
+	 * Main constructor for the {@link WindowIndex}.
+	 *
+	 * @param dataLength
+	 * 	The length of the data file [bytes]
+	 * @param offsets
+	 * 	The byte offset of each record in the data file.
+	 * @param transitIds
+	 * 	The transit ID of each record.
+	 * @param obmtRevs
+	 * 	The observation time of each record [rev].
+	 * @param fovs
+	 * 	The FOV of each record.
+	 * @param rows
+	 * 	The CCD row of each record.
+	 * @param strips
+	 * 	The CCD strip of each record.
+	 */
+	private WindowIndex(long dataLength, long[] offsets, long[] transitIds, double[] obmtRevs, byte[] fovs,
+			byte[] rows, byte[] strips) {
+		this.dataLength = dataLength;
+		this.offsets = offsets;
+		this.transitIds = transitIds;
+		this.obmtRevs = obmtRevs;
+		this.fovs = fovs;
+		this.rows = rows;
+		this.strips = strips;
+
+		long[] deviceKeys = new long[offsets.length];
+		long[] obmtKeys = new long[offsets.length];
+		for(int i=0; i<offsets.length; i++) {
+			deviceKeys[i] = getDeviceKey(fovs[i], rows[i], strips[i]);
+			obmtKeys[i] = getSortableBits(obmtRevs[i]);
+		}
+		transitIndex = new KeyIndex(transitIds);
+		deviceIndex = new KeyIndex(deviceKeys);
+		obmtIndex = new KeyIndex(obmtKeys);
+	}
+
+	/**
+	 * Get the sidecar index {@link File} for the given data {@link File}.
+	 *
+	 * @param dataFile
+	 * 	The binary {@link File} of {@link Window}s.
+	 * @return
+	 * 	The corresponding index {@link File}.
+	 */
+	public static File getIndexFile(File dataFile) {
+		return new File(dataFile.getParentFile(), dataFile.getName() + EXTENSION);
+	}
+
+	/**
+	 * Builds the {@link WindowIndex} for the given data file, by reading the header of each record.
+	 *
+	 * @param dataFile
+	 * 	The binary {@link File} of {@link Window}s.
+	 * @return
+	 * 	The {@link WindowIndex} for the file.
+	 * @throws IOException
+	 * 	If there's an exception reading the file, or it is truncated or corrupt.
+	 */
+	public static WindowIndex build(File dataFile) throws IOException {
+
+		long[] offsets = new long[1024];
+		long[] transitIds = new long[1024];
+		double[] obmtRevs = new double[1024];
+		byte[] fovs = new byte[1024];
+		byte[] rows = new byte[1024];
+		byte[] strips = new byte[1024];
+		int n = 0;
+		long length;
+
+		try (RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
+			 FileChannel channel = raf.getChannel()) {
+
+			length = channel.size();
+			ByteBuffer header = ByteBuffer.allocate(Window.HEADER_BYTES);
+			long offset = 0;
+
+			while(offset < length) {
+
+				header.clear();
+				while(header.hasRemaining()) {
+					if(channel.read(header, offset + header.position()) < 0) {
+						throw new IOException("Truncated Window header at byte " + offset + " of file " + dataFile.getName());
+					}
+				}
+
+				int recordLength = Window.getEncodedLength(header, 0);
+				if(recordLength < Window.HEADER_BYTES || offset + recordLength > length) {
+					throw new IOException("Truncated or corrupt Window record at byte " + offset + " of file " + dataFile.getName());
+				}
+
+				if(n == offsets.length) {
+					offsets = Arrays.copyOf(offsets, 2 * n);
+					transitIds = Arrays.copyOf(transitIds, 2 * n);
+					obmtRevs = Arrays.copyOf(obmtRevs, 2 * n);
+					fovs = Arrays.copyOf(fovs, 2 * n);
+					rows = Arrays.copyOf(rows, 2 * n);
+					strips = Arrays.copyOf(strips, 2 * n);
+				}
+				offsets[n] = offset;
+				fovs[n] = header.get(0);
+				rows[n] = header.get(1);
+				strips[n] = header.get(2);
+				transitIds[n] = header.getLong(6);
+				obmtRevs[n] = header.getDouble(14);
+				n++;
+
+				offset += recordLength;
+			}
+		}
+
+		return new WindowIndex(length, Arrays.copyOf(offsets, n), Arrays.copyOf(transitIds, n),
+				Arrays.copyOf(obmtRevs, n), Arrays.copyOf(fovs, n), Arrays.copyOf(rows, n), Arrays.copyOf(strips, n));
+	}
+
+	/**
+	 * Reads the {@link WindowIndex} from the sidecar index file for the given data file, if it exists and is
+	 * consistent with the data file.
+	 *
+	 * @param dataFile
+	 * 	The binary {@link File} of {@link Window}s.
+	 * @return
+	 * 	The {@link WindowIndex} for the file, or null if there's no index file or it is out of date.
+	 * @throws IOException
+	 * 	If there's an exception reading the index file.
+	 */
+	public static WindowIndex load(File dataFile) throws IOException {
+
+		File indexFile = getIndexFile(dataFile);
+		if(!indexFile.isFile()) {
+			return null;
+		}
+
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+			 FileChannel channel = raf.getChannel()) {
+
+			ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+
+			if(buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+				throw new IOException("File " + indexFile.getName() + " is not a Window index");
+			}
+			int version = buffer.getInt();
+			if(version != VERSION) {
+				throw new IOException("Unsupported Window index version " + version);
+			}
+			long length = buffer.getLong();
+			if(length != dataFile.length()) {
+				// Data file has changed since it was indexed
+				return null;
+			}
+			int n = buffer.getInt();
+			if(buffer.remaining() != n * ENTRY_BYTES) {
+				throw new IOException("Truncated Window index " + indexFile.getName());
+			}
+
+			long[] offsets = new long[n];
+			long[] transitIds = new long[n];
+			double[] obmtRevs = new double[n];
+			byte[] fovs = new byte[n];
+			byte[] rows = new byte[n];
+			byte[] strips = new byte[n];
+			for(int i=0; i<n; i++) {
+				offsets[i] = buffer.getLong();
+				transitIds[i] = buffer.getLong();
+				obmtRevs[i] = buffer.getDouble();
+				fovs[i] = buffer.get();
+				rows[i] = buffer.get();
+				strips[i] = buffer.get();
+			}
+			return new WindowIndex(length, offsets, transitIds, obmtRevs, fovs, rows, strips);
+		}
+	}
+
+	/**
+	 * Writes the {@link WindowIndex} to the sidecar index file for the given data file.
+	 *
+	 * @param dataFile
+	 * 	The binary {@link File} of {@link Window}s that this {@link WindowIndex} was built from.
+	 * @throws IOException
+	 * 	If there's an exception writing the index file.
+	 */
+	public void write(File dataFile) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + offsets.length * ENTRY_BYTES);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putLong(dataLength);
+		buffer.putInt(offsets.length);
+		for(int i=0; i<offsets.length; i++) {
+			buffer.putLong(offsets[i]);
+			buffer.putLong(transitIds[i]);
+			buffer.putDouble(obmtRevs[i]);
+			buffer.put(fovs[i]);
+			buffer.put(rows[i]);
+			buffer.put(strips[i]);
+		}
+		buffer.flip();
+
+		try (RandomAccessFile raf = new RandomAccessFile(getIndexFile(dataFile), "rw");
+			 FileChannel channel = raf.getChannel()) {
+			raf.setLength(0);
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of records in the data file.
+	 * @return
+	 * 	The number of records in the data file.
+	 */
+	public int size() {
+		return offsets.length;
+	}
+
+	/**
+	 * Get the byte offset of the given record in the data file.
+	 * @param record
+	 * 	The index of the record.
+	 * @return
+	 * 	The byte offset of the record in the data file.
+	 */
+	public long getOffset(int record) {
+		return offsets[record];
+	}
+
+	/**
+	 * Get the transit ID of the given record.
+	 * @param record
+	 * 	The index of the record.
+	 * @return
+	 * 	The transit ID of the record.
+	 */
+	public long getTransitId(int record) {
+		return transitIds[record];
+	}
+
+	/**
+	 * Get the observation time of the given record.
+	 * @param record
+	 * 	The index of the record.
+	 * @return
+	 * 	The observation time of the record [rev].
+	 */
+	public double getObmtRev(int record) {
+		return obmtRevs[record];
+	}
+
+	/**
+	 * Finds all the records for the given transit.
+	 * @param transitId
+	 * 	The transit ID.
+	 * @return
+	 * 	The indices of the records for the transit, in file order.
+	 */
+	public int[] getRecordsForTransit(long transitId) {
+		return transitIndex.getRecords(transitId, transitId);
+	}
+
+	/**
+	 * Finds all the records for the given device.
+	 * @param fov
+	 * 	The field-of-view number (0 or 1)
+	 * @param row
+	 * 	The CCD row number (1->7)
+	 * @param strip
+	 * 	The CCD strip number
+	 * @return
+	 * 	The indices of the records for the device, in file order.
+	 */
+	public int[] getRecordsForDevice(byte fov, byte row, byte strip) {
+		long key = getDeviceKey(fov, row, strip);
+		return deviceIndex.getRecords(key, key);
+	}
+
+	/**
+	 * Finds all the records with an observation time in the given (inclusive) range.
+	 * @param minObmtRev
+	 * 	The start of the range [rev]
+	 * @param maxObmtRev
+	 * 	The end of the range [rev]
+	 * @return
+	 * 	The indices of the records in the range, in file order.
+	 */
+	public int[] getRecordsInObmtRange(double minObmtRev, double maxObmtRev) {
+		return obmtIndex.getRecords(getSortableBits(minObmtRev), getSortableBits(maxObmtRev));
+	}
+
+	/**
+	 * Finds the nearest record in the given direction that belongs to a different transit than the given record.
+	 * Going forwards this is the first record of the next transit; going backwards it's the last record of the
+	 * previous transit.
+	 *
+	 * @param record
+	 * 	The index of the current record.
+	 * @param isForward
+	 * 	Specifies direction in which to search.
+	 * @return
+	 * 	The index of the record, or -1 if there are no more transits in the given direction.
+	 */
+	public int getAdjacentTransitRecord(int record, boolean isForward) {
+		int step = isForward ? 1 : -1;
+		for(int i = record + step; i >= 0 && i < transitIds.length; i += step) {
+			if(transitIds[i] != transitIds[record]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Combines the FOV, CCD row and strip into a single key.
+	 * @param fov
+	 * 	The field-of-view number
+	 * @param row
+	 * 	The CCD row number
+	 * @param strip
+	 * 	The CCD strip number
+	 * @return
+	 * 	The device key.
+	 */
+	private static long getDeviceKey(byte fov, byte row, byte strip) {
+		return (fov << 16) | (row << 8) | strip;
+	}
+
+	/**
+	 * Maps a double to a long such that the ordering of the longs matches the numerical ordering of the doubles.
+	 * @param value
+	 * 	The double value.
+	 * @return
+	 * 	A long that sorts in the same order as the double.
+	 */
+	private static long getSortableBits(double value) {
+		long bits = Double.doubleToLongBits(value);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	/**
+	 * Lookup table that groups the record indices by key, using only primitive arrays. The distinct keys are
+	 * stored in ascending order and the records for each key are stored contiguously, in file order.
+	 */
+	private static class KeyIndex {
+
+		/**
+		 * The distinct keys, in ascending order.
+		 */
+		private final long[] keys;
+
+		/**
+		 * The records for keys[k] are stored in elements start[k] to start[k+1]-1 of {@link #records}.
+		 */
+		private final int[] start;
+
+		/**
+		 * The record indices grouped by key.
+		 */
+		private final int[] records;
+
+		/**
+		 * Main constructor for the {@link KeyIndex}.
+		 * @param values
+		 * 	The key for each record.
+		 */
+		KeyIndex(long[] values) {
+
+			// Find the distinct keys
+			long[] sorted = values.clone();
+			Arrays.sort(sorted);
+			int nKeys = 0;
+			for(int i=0; i<sorted.length; i++) {
+				if(i == 0 || sorted[i] != sorted[i-1]) {
+					sorted[nKeys++] = sorted[i];
+				}
+			}
+			keys = Arrays.copyOf(sorted, nKeys);
+
+			// Counting sort of the records by key
+			int[] keyOfRecord = new int[values.length];
+			start = new int[nKeys + 1];
+			for(int i=0; i<values.length; i++) {
+				keyOfRecord[i] = Arrays.binarySearch(keys, values[i]);
+				start[keyOfRecord[i] + 1]++;
+			}
+			for(int k=0; k<nKeys; k++) {
+				start[k+1] += start[k];
+			}
+			int[] next = Arrays.copyOf(start, nKeys);
+			records = new int[values.length];
+			for(int i=0; i<values.length; i++) {
+				records[next[keyOfRecord[i]]++] = i;
+			}
+		}
+
+		/**
+		 * Get the records with keys in the given (inclusive) range.
+		 * @param min
+		 * 	The smallest key.
+		 * @param max
+		 * 	The largest key.
+		 * @return
+		 * 	The indices of the records, in file order.
+		 */
+		int[] getRecords(long min, long max) {
+			int lo = Arrays.binarySearch(keys, min);
+			if(lo < 0) {
+				lo = -lo - 1;
+			}
+			int hi = Arrays.binarySearch(keys, max);
+			hi = (hi < 0) ? -hi - 1 : hi + 1;
+			if(hi <= lo) {
+				return new int[0];
+			}
+			int[] result = Arrays.copyOfRange(records, start[lo], start[hi]);
+			if(hi - lo > 1) {
+				// Records for different keys need to be merged back into file order
+				Arrays.sort(result);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,458 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+
+import dm.Window;
+
+/**
+ * Streaming reader for files of {@link Window}s. Rather than loading the complete contents of the file into
+ * a {@link List} the {@link Window}s are read one at a time as the reader is iterated, so that the memory
+ * required is bounded by the size of the read buffer rather than the size of the file.
+ *
+ * Two formats are supported, determined from the file extension:
+ *
+ *  - .ser -> serialized Java objects. Either a stream of individual {@link Window}s as written by the
+ *            {@link WindowWriter}, or a single {@link List} of {@link Window}s as written by
+ *            {@link FileUtil#serialize(File, Object)}. Note that in the latter case the whole list is
+ *            necessarily deserialized when the reader is opened.
+ *  - .dat -> the binary format produced by {@link Window#toByteArray(Window)}.
+ *  - .gsc -> the {@link CompactCodec} format. Files written with the {@link CompactCodec} are detected from
+ *            the magic number, so older training sets renamed to .ser are also read correctly.
+ *  - .wz  -> the block-compressed format read by the {@link CompressedWindowArchive}. The blocks are
+ *            decompressed one at a time as the reader is iterated.
+ *
+ * Usage:
+ *
+ *  try (WindowReader reader = WindowReader.open(file)) {
+ *      while(reader.hasNext()) {
+ *          Window window = reader.next();
+ *          ...
+ *      }
+ *  }
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public abstract class WindowReader implements Iterator<Window>, Closeable {
+
+	/**
+	 * The default size of the read buffer [bytes].
+	 */
+	public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+	/**
+	 * The next {@link Window} to be returned by {@link #next()}, or null if the end of the file has been reached.
+	 */
+	private Window nextWindow;
+
+	/**
+	 * Indicates whether {@link #nextWindow} has been read ahead from the file.
+	 */
+	private boolean nextWindowLoaded = false;
+
+	/**
+	 * Opens a {@link WindowReader} on the given {@link File}, using a read buffer of the default size.
+	 *
+	 * @param file
+	 * 	The {@link File} to read.
+	 * @return
+	 * 	A {@link WindowReader} appropriate to the format of the {@link File}.
+	 * @throws IOException
+	 * 	If the file format is not recognised or there's an exception opening the file.
+	 */
+	public static WindowReader open(File file) throws IOException {
+		return open(file, DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Opens a {@link WindowReader} on the given {@link File}.
+	 *
+	 * @param file
+	 * 	The {@link File} to read.
+	 * @param bufferBytes
+	 * 	The size of the read buffer [bytes]. This bounds the memory used by the reader; it will be enlarged
+	 * only if a single {@link Window} is larger than the buffer.
+	 * @return
+	 * 	A {@link WindowReader} appropriate to the format of the {@link File}.
+	 * @throws IOException
+	 * 	If the file format is not recognised or there's an exception opening the file.
+	 */
+	public static WindowReader open(File file, int bufferBytes) throws IOException {
+		if(file.getName().endsWith(".ser") || file.getName().endsWith(CompactCodec.EXTENSION)) {
+			if(CompactCodec.isCompact(file)) {
+				return new CompactWindowReader(file, bufferBytes);
+			}
+			return new SerializedWindowReader(file, bufferBytes);
+		}
+		else if(file.getName().endsWith(".dat")) {
+			return new BinaryWindowReader(file, bufferBytes);
+		}
+		else if(file.getName().endsWith(CompressedWindowArchive.EXTENSION)) {
+			return new CompressedWindowReader(file);
+		}
+		throw new IOException("Couldn't interpret file " + file.getName());
+	}
+
+	/**
+	 * Reads the next {@link Window} from the file.
+	 *
+	 * @return
+	 * 	The next {@link Window} in the file, or null if the end of the file has been reached.
+	 * @throws IOException
+	 * 	If there's an exception reading the file.
+	 */
+	protected abstract Window readWindow() throws IOException;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean hasNext() {
+		if(!nextWindowLoaded) {
+			try {
+				nextWindow = readWindow();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			nextWindowLoaded = true;
+		}
+		return nextWindow != null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Window next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		nextWindowLoaded = false;
+		return nextWindow;
+	}
+
+	/**
+	 * Get a {@link Spliterator} over the remaining {@link Window}s in the file, for use with the stream API.
+	 *
+	 * @return
+	 * 	A sequential, ordered {@link Spliterator} over the remaining {@link Window}s in the file.
+	 */
+	public Spliterator<Window> spliterator() {
+		return Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+	}
+
+	/**
+	 * {@link WindowReader} for the binary format produced by {@link Window#toByteArray(Window)}. The file is
+	 * read through a {@link FileChannel} into a fixed-size buffer, and each {@link Window} is decoded from the
+	 * buffer.
+	 */
+	private static class BinaryWindowReader extends WindowReader {
+
+		/**
+		 * The {@link RandomAccessFile} being read.
+		 */
+		private final RandomAccessFile raf;
+
+		/**
+		 * The {@link FileChannel} on the file being read.
+		 */
+		private final FileChannel channel;
+
+		/**
+		 * The name of the file, for error messages.
+		 */
+		private final String name;
+
+		/**
+		 * Buffer for the data read from the file. Between reads it is in the state set by {@link ByteBuffer#flip()},
+		 * i.e. the remaining bytes are the ones that have been read from the file but not yet decoded.
+		 */
+		private ByteBuffer buffer;
+
+		/**
+		 * Main constructor for the {@link BinaryWindowReader}.
+		 * @param file
+		 * 	The {@link File} to read.
+		 * @param bufferBytes
+		 * 	The size of the read buffer [bytes].
+		 * @throws IOException
+		 * 	If there's an exception opening the file.
+		 */
+		BinaryWindowReader(File file, int bufferBytes) throws IOException {
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			name = file.getName();
+			buffer = ByteBuffer.allocateDirect(Math.max(bufferBytes, Window.HEADER_BYTES));
+			buffer.flip();
+		}
+
+		/**
+		 * Ensures that at least the given number of bytes are available in the buffer, reading more from
+		 * the file and enlarging the buffer if necessary.
+		 *
+		 * @param n
+		 * 	The number of bytes required.
+		 * @return
+		 * 	True if the bytes are available, false if the end of the file was reached first.
+		 * @throws IOException
+		 * 	If there's an exception reading the file.
+		 */
+		private boolean fill(int n) throws IOException {
+			if(buffer.remaining() >= n) {
+				return true;
+			}
+			if(n > buffer.capacity()) {
+				// Single record larger than the buffer
+				ByteBuffer larger = ByteBuffer.allocateDirect(n);
+				larger.put(buffer);
+				buffer = larger;
+			}
+			else {
+				buffer.compact();
+			}
+			while(buffer.position() < n) {
+				if(channel.read(buffer) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+			return buffer.remaining() >= n;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Window readWindow() throws IOException {
+			if(!fill(Window.HEADER_BYTES)) {
+				if(buffer.hasRemaining()) {
+					throw new IOException("Truncated Window header at end of file " + name);
+				}
+				return null;
+			}
+			int length = Window.getEncodedLength(buffer, buffer.position());
+			if(length < Window.HEADER_BYTES) {
+				throw new IOException("Corrupt Window header in file " + name);
+			}
+			if(!fill(length)) {
+				throw new IOException("Truncated Window record at end of file " + name);
+			}
+			Window window = Window.fromByteBuffer(buffer, buffer.position());
+			buffer.position(buffer.position() + length);
+			return window;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			channel.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * {@link WindowReader} for files of serialized Java objects.
+	 */
+	private static class SerializedWindowReader extends WindowReader {
+
+		/**
+		 * The {@link ObjectInputStream} on the file.
+		 */
+		private final ObjectInputStream in;
+
+		/**
+		 * If the file contains a single {@link List} of {@link Window}s, this provides the iteration over it;
+		 * otherwise it's null and the {@link Window}s are read from the stream one at a time.
+		 */
+		private Iterator<Window> listIter;
+
+		/**
+		 * The first {@link Window} in the stream, which has to be read on opening the file in order to
+		 * determine the format.
+		 */
+		private Window first;
+
+		/**
+		 * Main constructor for the {@link SerializedWindowReader}.
+		 * @param file
+		 * 	The {@link File} to read.
+		 * @param bufferBytes
+		 * 	The size of the read buffer [bytes].
+		 * @throws IOException
+		 * 	If there's an exception opening the file or the contents are not recognised.
+		 */
+		@SuppressWarnings("unchecked")
+		SerializedWindowReader(File file, int bufferBytes) throws IOException {
+			in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file), bufferBytes));
+			try {
+				Object object = in.readObject();
+				if(object instanceof List) {
+					listIter = ((List<Window>) object).iterator();
+				}
+				else if(object instanceof Window) {
+					first = (Window) object;
+				}
+				else {
+					in.close();
+					throw new IOException("File " + file.getName() + " does not contain Windows");
+				}
+			} catch (EOFException e) {
+				// Empty stream
+			} catch (ClassNotFoundException e) {
+				in.close();
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Window readWindow() throws IOException {
+			if(listIter != null) {
+				return listIter.hasNext() ? listIter.next() : null;
+			}
+			if(first != null) {
+				Window window = first;
+				first = null;
+				return window;
+			}
+			try {
+				return (Window) in.readObject();
+			} catch (EOFException e) {
+				return null;
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * {@link WindowReader} for files written with the {@link CompactCodec}.
+	 */
+	private static class CompactWindowReader extends WindowReader {
+
+		/**
+		 * The {@link DataInputStream} on the file.
+		 */
+		private final DataInputStream in;
+
+		/**
+		 * Main constructor for the {@link CompactWindowReader}.
+		 * @param file
+		 * 	The {@link File} to read.
+		 * @param bufferBytes
+		 * 	The size of the read buffer [bytes].
+		 * @throws IOException
+		 * 	If there's an exception opening the file or the contents are not recognised.
+		 */
+		CompactWindowReader(File file, int bufferBytes) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferBytes));
+			try {
+				if(CompactCodec.readHeader(in) != CompactCodec.KIND_WINDOW) {
+					throw new IOException("File " + file.getName() + " does not contain Windows");
+				}
+			}
+			catch(IOException e) {
+				in.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Window readWindow() throws IOException {
+			return CompactCodec.readWindow(in);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * {@link WindowReader} for block-compressed files read by the {@link CompressedWindowArchive}.
+	 */
+	private static class CompressedWindowReader extends WindowReader {
+
+		/**
+		 * The {@link CompressedWindowArchive} on the file.
+		 */
+		private final CompressedWindowArchive archive;
+
+		/**
+		 * The index of the next block to read.
+		 */
+		private int nextBlock = 0;
+
+		/**
+		 * Iterator over the {@link Window}s in the current block.
+		 */
+		private Iterator<Window> blockIter;
+
+		/**
+		 * Main constructor for the {@link CompressedWindowReader}.
+		 * @param file
+		 * 	The {@link File} to read.
+		 * @throws IOException
+		 * 	If there's an exception opening the file or the contents are not recognised.
+		 */
+		CompressedWindowReader(File file) throws IOException {
+			archive = new CompressedWindowArchive(file);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected Window readWindow() throws IOException {
+			while(blockIter == null || !blockIter.hasNext()) {
+				if(nextBlock == archive.getBlockCount()) {
+					return null;
+				}
+				blockIter = archive.readBlock(nextBlock++).iterator();
+			}
+			return blockIter.next();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			// The archive doesn't hold the file open
+		}
+	}
+}
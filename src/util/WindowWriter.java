@@ -0,0 +1,272 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import dm.Window;
+
+/**
+ * Streaming writer for files of {@link Window}s, the counterpart to {@link WindowReader}. {@link Window}s are
+ * accumulated in a fixed-size buffer that is written to the file whenever it fills up, so the memory required
+ * is bounded by the size of the buffer rather than the number of {@link Window}s written.
+ *
+ * Two formats are supported, determined from the file extension:
+ *
+ *  - .ser -> a stream of individual serialized {@link Window}s (including their {@link Window#sources}). These
+ *            are read back by the {@link WindowReader}, or as a single {@link java.util.List} by
+ *            {@link FileUtil#deserialize(File)}.
+ *  - .dat -> the binary format produced by {@link Window#toByteArray(Window)}.
+ *  - .gsc -> the {@link CompactCodec} format (including their {@link Window#sources}).
+ *  - .wz  -> the block-compressed format read by the {@link CompressedWindowArchive}; see
+ *            {@link CompressedWindowWriter} for control over the codec and block size.
+ *
+ * @author nrowell
+ * @version $Id$
+ */
+public abstract class WindowWriter implements Closeable {
+
+	/**
+	 * The default size of the write buffer [bytes].
+	 */
+	public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+	/**
+	 * Opens a {@link WindowWriter} on the given {@link File}, using a write buffer of the default size.
+	 *
+	 * @param file
+	 * 	The {@link File} to write.
+	 * @return
+	 * 	A {@link WindowWriter} appropriate to the format of the {@link File}.
+	 * @throws IOException
+	 * 	If the file format is not recognised or there's an exception opening the file.
+	 */
+	public static WindowWriter open(File file) throws IOException {
+		return open(file, DEFAULT_BUFFER_BYTES);
+	}
+
+	/**
+	 * Opens a {@link WindowWriter} on the given {@link File}.
+	 *
+	 * @param file
+	 * 	The {@link File} to write.
+	 * @param bufferBytes
+	 * 	The size of the write buffer [bytes].
+	 * @return
+	 * 	A {@link WindowWriter} appropriate to the format of the {@link File}.
+	 * @throws IOException
+	 * 	If the file format is not recognised or there's an exception opening the file.
+	 */
+	public static WindowWriter open(File file, int bufferBytes) throws IOException {
+		if(file.getName().endsWith(".ser")) {
+			return new SerializedWindowWriter(file, bufferBytes);
+		}
+		else if(file.getName().endsWith(".dat")) {
+			return new BinaryWindowWriter(file, bufferBytes);
+		}
+		else if(file.getName().endsWith(CompactCodec.EXTENSION)) {
+			return new CompactWindowWriter(file, bufferBytes);
+		}
+		else if(file.getName().endsWith(CompressedWindowArchive.EXTENSION)) {
+			return new CompressedWindowWriter(file);
+		}
+		throw new IOException("Couldn't interpret file " + file.getName());
+	}
+
+	/**
+	 * Writes the {@link Window} to the file.
+	 *
+	 * @param window
+	 * 	The {@link Window} to write.
+	 * @throws IOException
+	 * 	If there's an exception writing to the file.
+	 */
+	public abstract void write(Window window) throws IOException;
+
+	/**
+	 * {@link WindowWriter} for the binary format produced by {@link Window#toByteArray(Window)}. {@link Window}s
+	 * are encoded directly into a buffer that is written to the file through a {@link FileChannel}.
+	 */
+	private static class BinaryWindowWriter extends WindowWriter {
+
+		/**
+		 * The {@link FileOutputStream} on the file.
+		 */
+		private final FileOutputStream os;
+
+		/**
+		 * The {@link FileChannel} on the file.
+		 */
+		private final FileChannel channel;
+
+		/**
+		 * Buffer for the encoded {@link Window}s not yet written to the file.
+		 */
+		private final ByteBuffer buffer;
+
+		/**
+		 * Main constructor for the {@link BinaryWindowWriter}.
+		 * @param file
+		 * 	The {@link File} to write.
+		 * @param bufferBytes
+		 * 	The size of the write buffer [bytes].
+		 * @throws IOException
+		 * 	If there's an exception opening the file.
+		 */
+		BinaryWindowWriter(File file, int bufferBytes) throws IOException {
+			os = new FileOutputStream(file);
+			channel = os.getChannel();
+			buffer = ByteBuffer.allocateDirect(bufferBytes);
+		}
+
+		/**
+		 * Writes the contents of the buffer to the file.
+		 *
+		 * @throws IOException
+		 * 	If there's an exception writing to the file.
+		 */
+		private void flush() throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write(Window window) throws IOException {
+			int length = Window.getEncodedLength(window);
+			if(buffer.remaining() < length) {
+				flush();
+			}
+			if(buffer.remaining() < length) {
+				// Single record larger than the buffer
+				ByteBuffer record = ByteBuffer.wrap(Window.toByteArray(window));
+				while(record.hasRemaining()) {
+					channel.write(record);
+				}
+				return;
+			}
+			Window.toByteBuffer(window, buffer);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			}
+			finally {
+				channel.close();
+				os.close();
+			}
+		}
+	}
+
+	/**
+	 * {@link WindowWriter} for streams of serialized Java objects. The stream is reset periodically so that
+	 * the {@link ObjectOutputStream} does not retain references to all the {@link Window}s written.
+	 */
+	private static class SerializedWindowWriter extends WindowWriter {
+
+		/**
+		 * Number of {@link Window}s to write between resets of the stream.
+		 */
+		private static final int RESET_INTERVAL = 1000;
+
+		/**
+		 * The {@link ObjectOutputStream} on the file.
+		 */
+		private final ObjectOutputStream out;
+
+		/**
+		 * Number of {@link Window}s written since the last reset of the stream.
+		 */
+		private int count = 0;
+
+		/**
+		 * Main constructor for the {@link SerializedWindowWriter}.
+		 * @param file
+		 * 	The {@link File} to write.
+		 * @param bufferBytes
+		 * 	The size of the write buffer [bytes].
+		 * @throws IOException
+		 * 	If there's an exception opening the file.
+		 */
+		SerializedWindowWriter(File file, int bufferBytes) throws IOException {
+			out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferBytes));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write(Window window) throws IOException {
+			out.writeObject(window);
+			if(++count == RESET_INTERVAL) {
+				out.reset();
+				count = 0;
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * {@link WindowWriter} for files in the {@link CompactCodec} format.
+	 */
+	private static class CompactWindowWriter extends WindowWriter {
+
+		/**
+		 * The {@link DataOutputStream} on the file.
+		 */
+		private final DataOutputStream out;
+
+		/**
+		 * Main constructor for the {@link CompactWindowWriter}.
+		 * @param file
+		 * 	The {@link File} to write.
+		 * @param bufferBytes
+		 * 	The size of the write buffer [bytes].
+		 * @throws IOException
+		 * 	If there's an exception opening the file.
+		 */
+		CompactWindowWriter(File file, int bufferBytes) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferBytes));
+			CompactCodec.writeHeader(out, CompactCodec.KIND_WINDOW);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void write(Window window) throws IOException {
+			CompactCodec.writeWindow(out, window);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}